@@ -60,6 +60,7 @@ public class BTreeChecker {
                                 boolean checkOccupancy) throws
             DbException, IOException, TransactionAbortedException {
         BTreeRootPtrPage rtptr = bt.getRootPtrPage(tid, dirtypages);
+        bt.unpinPage(tid, dirtypages, rtptr.getId());
 
         if (rtptr.getRootId() == null) { // non existent root is a legal state.
             return;
@@ -76,6 +77,8 @@ public class BTreeChecker {
                                        BTreePageId parentId, boolean checkOccupancy, int depth) throws
             TransactionAbortedException, DbException {
         BTreePage page = (BTreePage )bt.getPage(tid, dirtypages, pageId, Permissions.READ_ONLY);
+        // the lock keeps the page from changing while it is checked.
+        bt.unpinPage(tid, dirtypages, pageId);
         assert(page.getParentId().equals(parentId));
 
         if (page.getId().pgcateg() == BTreePageId.LEAF) {
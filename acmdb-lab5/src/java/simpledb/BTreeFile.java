@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.Predicate.Op;
@@ -24,6 +25,15 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid;
 	private int keyField;
+	private final int pageSize;
+	/**
+	 * the open file, shared with every other thread using the tree.
+	 */
+	private final FileHandleCache files = FileHandleCache.shared();
+	/**
+	 * the read path in memory-mapped mode, null otherwise.
+	 */
+	private volatile MappedFile mapped;
 	
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -34,10 +44,58 @@ public class BTreeFile implements DbFile {
 	 * @param td  - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, BufferPool.getPageSize());
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, with pages of
+	 * pageSize bytes. The root pointer page keeps its own fixed size.
+	 *
+	 * @param f        - the file that stores the on-disk backing store for this B+ tree
+	 *                 file.
+	 * @param key      - the field which index is keyed on
+	 * @param td       - the tuple descriptor of tuples in the file
+	 * @param pageSize - the size of the other pages of the file
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int pageSize) {
 		this.f = f;
+		this.pageSize = pageSize;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		try {
+			// the file may have been replaced since it was last opened.
+			files.forget(f);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		setMappedReads(MappedFile.DEFAULT_MAPPED_READS);
+	}
+
+	/**
+	 * Read pages through a memory mapping of the file instead of the file
+	 * handle, saving a system call per page. Writes are not affected.
+	 */
+	public void setMappedReads(boolean enable) {
+		mapped = enable ? new MappedFile(f) : null;
+	}
+
+	/**
+	 * @return the offset of page id in the file.
+	 */
+	private long offsetOf(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR)
+			return 0;
+		return BTreeRootPtrPage.getPageSize() + (long) (id.pageNumber() - 1) * pageSize;
+	}
+
+	/**
+	 * @return the size of page id on disk.
+	 */
+	private int sizeOf(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR)
+			return BTreeRootPtrPage.getPageSize();
+		return pageSize;
 	}
 	
 	/**
@@ -68,6 +126,12 @@ public class BTreeFile implements DbFile {
 	public TupleDesc getTupleDesc() {
 		return td;
 	}
+
+	// see DbFile.java for javadocs
+	@Override
+	public int getPageSize() {
+		return pageSize;
+	}
 	
 	/**
 	 * Read a page from the file on disk. This should not be called directly
@@ -78,60 +142,58 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
-		
+		byte[] pageBuf = new byte[sizeOf(id)];
+		MappedFile m = mapped;
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
-			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
-			} else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber() - 1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber() - 1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if (id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				} else if (id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				} else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
-			}
+			int n = m != null ? m.read(offsetOf(id), ByteBuffer.wrap(pageBuf))
+					: files.read(f, offsetOf(id), ByteBuffer.wrap(pageBuf));
+			if (n == 0)
+				throw new IllegalArgumentException("Read past end of table");
+			if (n < pageBuf.length)
+				throw new IllegalArgumentException("Unable to read "
+						+ pageBuf.length + " bytes from BTreeFile");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+		return decodePage(id, pageBuf);
+	}
+
+	// see DbFile.java for javadocs
+	public void readPageImage(PageId pid, ByteBuffer buf) {
+		BTreePageId id = (BTreePageId) pid;
+		int size = sizeOf(id);
+		long offset = offsetOf(id);
+		int start = buf.position();
+		MappedFile m = mapped;
+		ByteBuffer dst = buf.duplicate();
+		dst.limit(start + size);
+		try {
+			if ((m != null ? m.read(offset, dst) : files.read(f, offset, dst)) < size)
+				throw new IllegalArgumentException("Read past end of table");
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
+		}
+		buf.position(start + size);
+		Debug.log(1, "BTreeFile.readPageImage: read page %d", id.pageNumber());
+	}
+
+	// see DbFile.java for javadocs
+	public Page decodePage(PageId pid, byte[] data) {
+		BTreePageId id = (BTreePageId) pid;
+		try {
+			switch (id.pgcateg()) {
+			case BTreePageId.ROOT_PTR:
+				return new BTreeRootPtrPage(id, data);
+			case BTreePageId.INTERNAL:
+				return new BTreeInternalPage(id, data, keyField);
+			case BTreePageId.LEAF:
+				return new BTreeLeafPage(id, data, keyField);
+			default: // BTreePageId.HEADER
+				return new BTreeHeaderPage(id, data);
 			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 	
@@ -145,15 +207,17 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		} else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		files.write(f, offsetOf(id), ByteBuffer.wrap(data));
+	}
+	
+	// see DbFile.java for javadocs
+	@Override
+	public void writePages(List<Page> pages) throws IOException {
+		files.with(f, channel -> {
+			PageRunWriter.write(channel, pages, pid -> offsetOf((BTreePageId) pid));
+			channel.force(false);
+			return null;
+		});
 	}
 	
 	/**
@@ -161,7 +225,11 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+		try {
+			return (int) ((files.size(f) - BTreeRootPtrPage.getPageSize()) / pageSize);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 	
 	/**
@@ -172,93 +240,124 @@ public class BTreeFile implements DbFile {
 	}
 	
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the
-	 * leaf node with permission perm.
+	 * Finds and locks the leaf page in the B+ tree corresponding to the left-most page
+	 * possibly containing the key field f, descending from the root pointer page. Only
+	 * the leaf node is locked for the rest of the transaction, with permission perm.
+	 * <p>
+	 * The descent couples locks: each page on the path is locked READ_ONLY until its
+	 * child is locked, so that no split or merge changes it in between, and then released
+	 * again unless tid held it before, so that transactions splitting other leaves do not
+	 * wait for tid to end. The descent never waits for a child while it holds the parent,
+	 * which the holder of the child may need to split; it lets the parent go, waits for the
+	 * child, and starts over from the root pointer, since the tree may have changed.
 	 * <p>
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 *
 	 * @param tid        - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-	 * @param pid        - the current page being searched
 	 * @param perm       - the permissions with which to lock the leaf page
 	 * @param f          - the field to search for
 	 * @return the left-most leaf page possibly containing the key field f
 	 */
-	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
+	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
 	                                   Field f)
 			throws DbException, TransactionAbortedException {
 		// some code goes here
-		
-		BTreePage page = (BTreePage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-		
-		// if current page is already leaf page, base case in recursion.
-		if (pid.pgcateg() == BTreePageId.LEAF) {
-			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-		} else {
-			// otherwise, root is an internal.
-			assert pid.pgcateg() == BTreePageId.INTERNAL;
-			BTreeInternalPage internalPage = (BTreeInternalPage) page;
-			
-			Iterator<BTreeEntry> iter = internalPage.iterator();
-			
-			// assert internal node non-empty.
-			assert iter.hasNext();
-			
-			// if f is null, return the left most.
-			if (f == null) {
-				return findLeafPage(tid, dirtypages, iter.next().getLeftChild(), perm, f);
-			} else {
-				// otherwise.
-				BTreeEntry initEntry = iter.next();
+		BufferPool bp = Database.getBufferPool();
+		while (true) {
+			BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+			// the page locked only until its child is.
+			BTreePageId coupled = null;
+			while (true) {
+				boolean leaf = pid.pgcateg() == BTreePageId.LEAF;
+				Permissions pagePerm = leaf ? perm : Permissions.READ_ONLY;
+				boolean passing = !dirtypages.containsKey(pid) && !bp.holdsLock(tid, pid);
+				if (coupled != null && passing && !bp.tryLockPage(tid, pid, pagePerm)) {
+					bp.releasePage(tid, coupled);
+					// only wait for the holder of the page to be done with it.
+					bp.getPage(tid, pid, pagePerm);
+					bp.unpinPage(tid, pid);
+					bp.releasePage(tid, pid);
+					break;
+				}
 				
-				IndexPredicate leQuery = new IndexPredicate(Op.LESS_THAN_OR_EQ, f);
-				IndexPredicate geQuery = new IndexPredicate(Op.GREATER_THAN_OR_EQ, f);
+				// a leaf to read stays pinned for the caller.
+				Page page = getPage(tid, dirtypages, pid, pagePerm);
+				if (coupled != null)
+					bp.releasePage(tid, coupled);
+				coupled = passing ? pid : null;
 				
-				if (geQuery.filter(initEntry.getKey())) {
-					// if the queried is already smaller than the initial key.
-					//      descend the first-left child.
-					return findLeafPage(tid, dirtypages, initEntry.getLeftChild(), perm, f);
+				// if current page is already leaf page, the descent ends.
+				if (leaf)
+					return (BTreeLeafPage) page;
+				BTreePageId child;
+				if (pid.pgcateg() == BTreePageId.ROOT_PTR) {
+					child = ((BTreeRootPtrPage) page).getRootId();
 				} else {
-					// otherwise, continue.
-					BTreeEntry prevEntry = initEntry;
-					BTreeEntry curEntry;
-					
-					while (iter.hasNext()) {
-						curEntry = iter.next();
-						
-						// if queried key lies between two keys, we descend to the child in between.
-						if (leQuery.filter(prevEntry.getKey()) && geQuery.filter(curEntry.getKey())) {
-							return findLeafPage(tid, dirtypages, curEntry.getLeftChild(), perm, f);
-						}
-						
-						prevEntry = curEntry;
-						curEntry = null;
-					}
-					
-					// queried key is greater than any key in this internal node, return the right most node.
-					return findLeafPage(tid, dirtypages, prevEntry.getRightChild(), perm, f);
+					assert pid.pgcateg() == BTreePageId.INTERNAL;
+					child = childOf((BTreeInternalPage) page, f);
 				}
+				unpinPage(tid, dirtypages, pid);
+				pid = child;
 			}
 		}
 	}
 	
+	/**
+	 * @return the child of page to descend to find the left-most leaf page possibly
+	 * containing the key field f, or the left-most leaf page if f is null
+	 */
+	private static BTreePageId childOf(BTreeInternalPage internalPage, Field f) {
+		Iterator<BTreeEntry> iter = internalPage.iterator();
+		
+		// assert internal node non-empty.
+		assert iter.hasNext();
+		
+		// if f is null, return the left most.
+		BTreeEntry initEntry = iter.next();
+		if (f == null)
+			return initEntry.getLeftChild();
+		
+		IndexPredicate leQuery = new IndexPredicate(Op.LESS_THAN_OR_EQ, f);
+		IndexPredicate geQuery = new IndexPredicate(Op.GREATER_THAN_OR_EQ, f);
+		
+		if (geQuery.filter(initEntry.getKey())) {
+			// if the queried is already smaller than the initial key.
+			//      descend the first-left child.
+			return initEntry.getLeftChild();
+		}
+		
+		// otherwise, continue.
+		BTreeEntry prevEntry = initEntry;
+		BTreeEntry curEntry;
+		
+		while (iter.hasNext()) {
+			curEntry = iter.next();
+			
+			// if queried key lies between two keys, we descend to the child in between.
+			if (leQuery.filter(prevEntry.getKey()) && geQuery.filter(curEntry.getKey()))
+				return curEntry.getLeftChild();
+			
+			prevEntry = curEntry;
+		}
+		
+		// queried key is greater than any key in this internal node, return the right most node.
+		return prevEntry.getRightChild();
+	}
+	
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
-	 * Used by the BTreeFile iterator.
+	 * Used by the BTreeFile iterator, which unpins the leaf when it is done with it.
 	 *
 	 * @param tid  - the transaction id
-	 * @param pid  - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f    - the field to search for
 	 * @return the left-most leaf page possibly containing the key field f
-	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+	 * @see #findLeafPage(TransactionId, HashMap, Permissions, Field)
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
-	                           Field f)
+	BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f)
 			throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+		return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f);
 	}
 	
 	/**
@@ -485,8 +584,10 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		
 		BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
+		boolean stale = !p.getParentId().equals(pid);
+		unpinPage(tid, dirtypages, child);
 		
-		if (!p.getParentId().equals(pid)) {
+		if (stale) {
 			p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
 			p.setParentId(pid);
 		}
@@ -527,6 +628,11 @@ public class BTreeFile implements DbFile {
 	 * <p>
 	 * This method is needed to ensure that page updates are not lost if the same pages are
 	 * accessed multiple times.
+	 * <p>
+	 * Pages fetched with read-write permission are unpinned once they are in dirtypages, which
+	 * keeps them until the buffer pool marks them dirty and puts them back; pages that are only
+	 * read stay pinned until the caller is done with them and calls
+	 * {@link #unpinPage(TransactionId, HashMap, PageId)}.
 	 *
 	 * @param tid        - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
@@ -545,11 +651,26 @@ public class BTreeFile implements DbFile {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
 			if (perm == Permissions.READ_WRITE) {
 				dirtypages.put(pid, p);
+				Database.getBufferPool().unpinPage(tid, pid);
 			}
 			return p;
 		}
 	}
 	
+	/**
+	 * Unpin a page fetched with read-only permission by getPage, once the caller is done
+	 * with it. Pages in dirtypages are no longer pinned, and are left alone.
+	 *
+	 * @param tid        - the transaction id
+	 * @param dirtypages - the list of dirty pages
+	 * @param pid        - the id of the page
+	 */
+	void unpinPage(TransactionId tid, HashMap<PageId, Page> dirtypages, PageId pid) {
+		if (!dirtypages.containsKey(pid)) {
+			Database.getBufferPool().unpinPage(tid, pid);
+		}
+	}
+	
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order.
 	 * May cause pages to split if the page where tuple t belongs is full.
@@ -564,19 +685,25 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 		
-		// get a read lock on the root pointer page and use it to locate the root page
+		// get a read lock on the root pointer page to check that there is a root page
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		boolean passing = !dirtypages.containsKey(rootPtrId) && !Database.getBufferPool().holdsLock(tid, rootPtrId);
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId rootId = rootPtr.getRootId();
+		unpinPage(tid, dirtypages, rootPtrId);
 		
 		if (rootId == null) { // the root has just been created, so set the root pointer to point to it
 			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
 			rootPtr.setRootId(rootId);
+		} else if (passing) {
+			// the descent locks it again, only as long as it needs to.
+			Database.getBufferPool().releasePage(tid, rootPtrId);
 		}
 		
 		// find and lock the left-most leaf page corresponding to the key field,
 		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, t.getField(keyField));
 		if (leafPage.getNumEmptySlots() == 0) {
 			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
 		}
@@ -1070,7 +1197,7 @@ public class BTreeFile implements DbFile {
 	
 	/**
 	 * Get a read lock on the root pointer page. Create the root pointer page and root page
-	 * if necessary.
+	 * if necessary. The page stays pinned until the caller unpins it.
 	 *
 	 * @param tid        - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
@@ -1081,15 +1208,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized (this) {
-			if (f.length() == 0) {
+			if (files.size(f) == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData(pageSize);
+				files.write(f, 0, ByteBuffer.wrap(emptyRootPtrData));
+				files.write(f, emptyRootPtrData.length, ByteBuffer.wrap(emptyLeafData));
 			}
 		}
 		
@@ -1110,9 +1234,15 @@ public class BTreeFile implements DbFile {
 	 */
 	protected int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages)
 			throws DbException, IOException, TransactionAbortedException {
-		// get a read lock on the root pointer page and use it to locate the first header page
+		// get a read lock on the root pointer page and use it to locate the first header page;
+		// a header page added later only offers pages that were freed later.
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		boolean passing = !dirtypages.containsKey(rootPtrId) && !Database.getBufferPool().holdsLock(tid, rootPtrId);
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId headerId = rootPtr.getHeaderId();
+		unpinPage(tid, dirtypages, rootPtrId);
+		if (passing)
+			Database.getBufferPool().releasePage(tid, rootPtrId);
 		int emptyPageNo = 0;
 		
 		if (headerId != null) {
@@ -1120,6 +1250,7 @@ public class BTreeFile implements DbFile {
 			int headerPageCount = 0;
 			// try to find a header page with an empty slot
 			while (headerPage != null && headerPage.getEmptySlot() == -1) {
+				unpinPage(tid, dirtypages, headerId);
 				headerId = headerPage.getNextPageId();
 				if (headerId != null) {
 					headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
@@ -1131,10 +1262,11 @@ public class BTreeFile implements DbFile {
 			
 			// if headerPage is not null, it must have an empty slot
 			if (headerPage != null) {
+				unpinPage(tid, dirtypages, headerId);
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots(pageSize) + emptySlot;
 			}
 		}
 		
@@ -1143,11 +1275,8 @@ public class BTreeFile implements DbFile {
 		if (headerId == null) {
 			synchronized (this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				byte[] emptyData = BTreeInternalPage.createEmptyPageData(pageSize);
+				files.write(f, files.size(f), ByteBuffer.wrap(emptyData));
 				emptyPageNo = numPages();
 			}
 		}
@@ -1177,10 +1306,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		files.write(f, offsetOf(newPageId), ByteBuffer.wrap(BTreePage.createEmptyPageData(pageSize)));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1228,6 +1354,7 @@ public class BTreeFile implements DbFile {
 		// the first header page
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId headerId = rootPtr.getHeaderId();
+		unpinPage(tid, dirtypages, rootPtr.getId());
 		BTreePageId prevId = null;
 		int headerPageCount = 0;
 		
@@ -1244,8 +1371,9 @@ public class BTreeFile implements DbFile {
 		
 		// iterate through all the existing header pages to find the one containing the slot
 		// corresponding to emptyPageNo
-		while (headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while (headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+			unpinPage(tid, dirtypages, headerId);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
 			headerPageCount++;
@@ -1254,7 +1382,7 @@ public class BTreeFile implements DbFile {
 		// at this point headerId should either be null or set with 
 		// the headerPage containing the slot corresponding to emptyPageNo.
 		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while ((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while ((headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
@@ -1270,7 +1398,7 @@ public class BTreeFile implements DbFile {
 		// now headerId should be set with the headerPage containing the slot corresponding to 
 		// emptyPageNo
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots(pageSize);
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 	
@@ -1285,7 +1413,20 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for the filtered tuples
 	 */
 	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
-		return new BTreeSearchIterator(this, tid, ipred);
+		return new BTreeSearchIterator(this, tid, ipred, null);
+	}
+	
+	/**
+	 * Get the specified tuples like {@link #indexIterator(TransactionId, IndexPredicate)},
+	 * reading leaf pages into the ring of strategy.
+	 *
+	 * @param tid      - the transaction id
+	 * @param ipred    - the index predicate value to filter on
+	 * @param strategy - the ring to read leaves through, or null
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred, BufferAccessStrategy strategy) {
+		return new BTreeSearchIterator(this, tid, ipred, strategy);
 	}
 	
 	/**
@@ -1297,7 +1438,20 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for all the tuples in this file
 	 */
 	public DbFileIterator iterator(TransactionId tid) {
-		return new BTreeFileIterator(this, tid);
+		return new BTreeFileIterator(this, tid, null);
+	}
+	
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in sorted order, that reads
+	 * leaf pages into the ring of strategy.
+	 *
+	 * @param tid      - the transaction id
+	 * @param strategy - the ring to read leaves through, or null
+	 * @return an iterator for all the tuples in this file
+	 */
+	@Override
+	public DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy) {
+		return new BTreeFileIterator(this, tid, strategy);
 	}
 	
 }
@@ -1309,29 +1463,31 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ReadAhead readAhead = new ReadAhead();
 	
 	TransactionId tid;
 	BTreeFile f;
+	BufferAccessStrategy strategy;
 	
 	/**
 	 * Constructor for this iterator
 	 *
-	 * @param f   - the BTreeFile containing the tuples
-	 * @param tid - the transaction id
+	 * @param f        - the BTreeFile containing the tuples
+	 * @param tid      - the transaction id
+	 * @param strategy - the ring to read leaves through, or null
 	 */
-	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+	public BTreeFileIterator(BTreeFile f, TransactionId tid, BufferAccessStrategy strategy) {
 		this.f = f;
 		this.tid = tid;
+		this.strategy = strategy;
 	}
 	
 	/**
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+		readAhead = new ReadAhead(strategy);
 		it = curp.iterator();
 	}
 	
@@ -1348,11 +1504,13 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
-			if (nextp == null) {
-				curp = null;
-			} else {
+			// done with the page before the next one needs a frame.
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+			curp = null;
+			if (nextp != null) {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, strategy);
+				readAhead.leafAccess(curp, f.numPages());
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1377,6 +1535,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		if (curp != null)
+			Database.getBufferPool().unpinPage(tid, curp.getId());
 		it = null;
 		curp = null;
 	}
@@ -1390,22 +1550,26 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ReadAhead readAhead = null;
 	
 	TransactionId tid;
 	BTreeFile f;
 	IndexPredicate ipred;
+	BufferAccessStrategy strategy;
 	
 	/**
 	 * Constructor for this iterator
 	 *
-	 * @param f     - the BTreeFile containing the tuples
-	 * @param tid   - the transaction id
-	 * @param ipred - the predicate to filter on
+	 * @param f        - the BTreeFile containing the tuples
+	 * @param tid      - the transaction id
+	 * @param ipred    - the predicate to filter on
+	 * @param strategy - the ring to read leaves through, or null
 	 */
-	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred, BufferAccessStrategy strategy) {
 		this.f = f;
 		this.tid = tid;
 		this.ipred = ipred;
+		this.strategy = strategy;
 	}
 	
 	/**
@@ -1413,15 +1577,13 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, ipred.getField());
 		} else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
 		}
+		readAhead = new ReadAhead(strategy);
 		it = curp.iterator();
 	}
 	
@@ -1457,8 +1619,14 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			if (nextp == null) {
 				return null;
 			} else {
+				// done with the page before the next one needs a frame.
+				Database.getBufferPool().unpinPage(tid, curp.getId());
+				curp = null;
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, strategy);
+				// scans bounded from above usually end within a few pages.
+				if (ipred.getOp() == Op.GREATER_THAN || ipred.getOp() == Op.GREATER_THAN_OR_EQ)
+					readAhead.leafAccess(curp, f.numPages());
 				it = curp.iterator();
 			}
 		}
@@ -1479,6 +1647,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		if (curp != null)
+			Database.getBufferPool().unpinPage(tid, curp.getId());
 		it = null;
+		curp = null;
 	}
 }
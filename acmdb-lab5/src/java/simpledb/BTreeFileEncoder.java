@@ -70,7 +70,7 @@ public class BTreeFileEncoder {
 
 		try {
 			TransactionId tid = new TransactionId();
-			DbFileIterator it = Database.getCatalog().getDatabaseFile(heapf.getId()).iterator(tid);
+			DbFileIterator it = heapf.iterator(tid, BufferAccessStrategy.bulkRead(heapf));
 			it.open();
 			int count = 0;
 			Transaction t = new Transaction();
@@ -200,8 +200,8 @@ public class BTreeFileEncoder {
 			int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
 					throws IOException, DbException, TransactionAbortedException {
 		// convert the inFile to HeapFile first.
-		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
-		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
+		HeapFileEncoder.convert(inFile, hFile, npagebytes, numFields);
+		HeapFile heapf = Utility.openHeapFile(numFields, hFile, npagebytes);
 
 		// read all the tuples from the heap file and sort them on the keyField
 		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
@@ -216,7 +216,7 @@ public class BTreeFileEncoder {
 		Collections.sort(tuples, new TupleComparator(keyField));
 
 		// add the tuples to B+ tree file
-		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField, npagebytes);
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -19,6 +19,7 @@ public class BTreeHeaderPage implements Page {
 	final BTreePageId pid;
 	final byte header[];
 	final int numSlots;
+	private final int pageSize;
 
 	private int nextPage; // next header page or 0
 	private int prevPage; // previous header page or 0
@@ -36,7 +37,8 @@ public class BTreeHeaderPage implements Page {
 	 */
 	public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
-		this.numSlots = getNumSlots();
+		this.pageSize = data.length;
+		this.numSlots = getNumSlots(pageSize);
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the next and prev pointers
@@ -55,7 +57,7 @@ public class BTreeHeaderPage implements Page {
 		}
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
+		header = new byte[getHeaderSize(pageSize)];
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
 
@@ -75,17 +77,25 @@ public class BTreeHeaderPage implements Page {
 	/**
 	 * Computes the number of bytes in the header while saving room for pointers
 	 */
-	private static int getHeaderSize() {        
+	private static int getHeaderSize(int pageSize) {
 		// pointerBytes: nextPage and prevPage pointers
 		int pointerBytes = 2 * INDEX_SIZE; 
-		return BufferPool.getPageSize() - pointerBytes;
+		return pageSize - pointerBytes;
 	}
 
 	/**
 	 * Computes the number of slots in the header
 	 */
 	public static int getNumSlots() {        
-		return getHeaderSize() * 8;
+		return getNumSlots(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Computes the number of slots in the header pages of a file with the
+	 * given page size
+	 */
+	public static int getNumSlots(int pageSize) {
+		return getHeaderSize(pageSize) * 8;
 	}
 
 	/** Return a view of this page before it was modified
@@ -132,7 +142,7 @@ public class BTreeHeaderPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -179,8 +189,14 @@ public class BTreeHeaderPage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Like {@link #createEmptyPageData()}, for a file with the given page size.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
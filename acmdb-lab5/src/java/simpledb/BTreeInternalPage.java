@@ -49,7 +49,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * has m+1 pointers to children), and the category of all child pages (either 
 	 * leaf or internal).
 	 *  Specifically, the number of entries is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
 	 * (key + child pointer), which can be determined via the key field and 
 	 * {@link Catalog#getTupleDesc}.
@@ -57,6 +57,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * The page size is the length of data, see {@link DbFile#getPageSize()}.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -66,7 +67,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		super(id, key, data.length);
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -120,7 +121,7 @@ public class BTreeInternalPage extends BTreePage {
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
 		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
-		int entriesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
+		int entriesPerPage = (pageSize*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
 		return entriesPerPage;
 	}
 
@@ -232,7 +233,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -315,7 +316,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
+		int zerolen = pageSize - (INDEX_SIZE + 1 + header.length + 
 				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
@@ -46,13 +46,14 @@ public class BTreeLeafPage extends BTreePage {
 	 * the slots of the page that are in use, and some number of tuple slots, 
 	 * as well as some extra bytes for the parent and sibling pointers.
 	 *  Specifically, the number of tuples is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
+	 *          floor((page size*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
 	 * database table, which can be determined via {@link Catalog#getTupleDesc}.
 	 * The number of 8-bit header words is equal to:
 	 * <p>
 	 *      ceiling(no. tuple slots / 8)
 	 * <p>
+	 * The page size is the length of data, see {@link DbFile#getPageSize()}.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -62,7 +63,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		super(id, key, data.length);
 		this.numSlots = getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -113,7 +114,7 @@ public class BTreeLeafPage extends BTreePage {
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
 		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
 		int extraBits = 3 * INDEX_SIZE * 8; 
-		int tuplesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader; //round down
+		int tuplesPerPage = (pageSize*8 - extraBits) / bitsPerTupleIncludingHeader; //round down
 		return tuplesPerPage;
 	}
 
@@ -199,7 +200,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -262,7 +263,7 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = pageSize - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -22,6 +22,10 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	/**
+	 * size of this page in bytes, the page size of its file.
+	 */
+	protected final int pageSize;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -52,8 +56,13 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) throws IOException {
+		this(id, key, BufferPool.getPageSize());
+	}
+
+	public BTreePage(BTreePageId id, int key, int pageSize) throws IOException {
 		this.pid = id;
 		this.keyField = key;
+		this.pageSize = pageSize;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
@@ -74,8 +83,14 @@ public abstract class BTreePage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Like {@link #createEmptyPageData()}, for a file with the given page size.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
@@ -80,7 +80,11 @@ public class BTreeScan implements DbIterator {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
 		else {
-			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+			// a range bigger than the pool is read through a ring of frames.
+			BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+			BufferAccessStrategy strategy = ipred.getOp() == Predicate.Op.EQUALS ? null
+					: BufferAccessStrategy.bulkRead(file);
+			this.it = file.indexIterator(tid, ipred, strategy);
 		}
 		myTd = Database.getCatalog().getTupleDesc(tableid);
 		String[] newNames = new String[myTd.numFields()];
@@ -422,9 +422,13 @@ public class BTreeUtility {
 	 * @return the opened table.
 	 */
 	public static BTreeFile openBTreeFile(int cols, File f, int keyField) {
+		return openBTreeFile(cols, f, keyField, BufferPool.getPageSize());
+	}
+
+	public static BTreeFile openBTreeFile(int cols, File f, int keyField, int pageSize) {
 		// create the BTreeFile and add it to the catalog
 		TupleDesc td = Utility.getTupleDesc(cols);
-		BTreeFile bf = new BTreeFile(f, keyField, td);
+		BTreeFile bf = new BTreeFile(f, keyField, td, pageSize);
 		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
 		return bf;
 	}
@@ -0,0 +1,68 @@
+package simpledb;
+
+/**
+ * BufferAccessStrategy is a small private ring of frames for a bulk read,
+ * such as a sequential scan of a table larger than the BufferPool. Each page
+ * the reader brings into the pool takes the frame of the page it brought in
+ * ring-size pages earlier, so the reader never displaces more than a ring of
+ * shared frames, and the working set of other queries stays resident.
+ * <p>
+ * Only clean pages nobody has pinned are recycled; when the page in the
+ * ring is dirty or in use, the pool evicts as usual. Pages that were already
+ * resident are used in place and do not join the ring.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferAccessStrategy)
+ */
+public class BufferAccessStrategy {
+	/**
+	 * Most frames a ring holds; the ring of a small pool is at most a
+	 * quarter of the pool.
+	 */
+	public static final int DEFAULT_RING_SIZE = 32;
+
+	private final PageId[] ring;
+	private int next = 0;
+
+	/**
+	 * @param ringSize the number of frames the reader recycles
+	 */
+	public BufferAccessStrategy(int ringSize) {
+		if (ringSize < 1)
+			throw new IllegalArgumentException("ring size must be positive");
+		ring = new PageId[ringSize];
+	}
+
+	/**
+	 * Strategy for reading all of file.
+	 *
+	 * @return a ring for the pool of the Database, or null if the file fits
+	 * in the pool, where its pages are better kept for the next reader.
+	 */
+	public static BufferAccessStrategy bulkRead(DbFile file) {
+		int poolPages = Database.getBufferPool().getNumPages();
+		if (file.numPages() <= poolPages)
+			return null;
+		return new BufferAccessStrategy(Math.max(1, Math.min(DEFAULT_RING_SIZE, poolPages / 4)));
+	}
+
+	public int size() {
+		return ring.length;
+	}
+
+	/**
+	 * @return the page whose frame the next page should take, or null while
+	 * the ring is not full.
+	 */
+	synchronized PageId victim() {
+		return ring[next];
+	}
+
+	/**
+	 * Record that pid was brought into the pool for this reader, in place
+	 * of the victim.
+	 */
+	synchronized void add(PageId pid) {
+		ring[next] = pid;
+		next = (next + 1) % ring.length;
+	}
+}
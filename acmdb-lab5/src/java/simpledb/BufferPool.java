@@ -2,8 +2,15 @@ package simpledb;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,101 +20,1603 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking; when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * By default the pool is NO-STEAL/FORCE: pages dirtied by a running
+ * transaction are never written back, and commit writes them all. In
+ * STEAL/NO-FORCE mode commit only logs the dirty pages, a background
+ * {@link PageCleaner} writes them later, and eviction may write back dirty
+ * pages of running transactions; each write honours the write-ahead rule
+ * through the log offset (LSN) kept with every frame.
+ * <p>
+ * An off-heap pool keeps resident pages as images in a {@link FrameArena}
+ * of direct buffers. Page objects are only built from the images for pages
+ * that transactions have pinned, and dropped again once the page is clean
+ * and unpinned, so that large pools neither fill the heap nor keep the
+ * garbage collector busy.
  *
- * @Threadsafe, all fields are final
+ * @Threadsafe: the page tables are guarded by the lock of their segment,
+ * each frame by its latch, and the size of the pool is volatile so that
+ * resize may change it while transactions run.
  */
 
-public class BufferPool {
+public class BufferPool {
+	/**
+	 * Bytes per page, including header.
+	 */
+	private static final int PAGE_SIZE = 4096;
+
+	private static int pageSize = PAGE_SIZE;
+
+	/**
+	 * Default number of pages passed to the constructor. This is used by
+	 * other classes. BufferPool should use the numPages argument to the
+	 * constructor instead.
+	 */
+	public static final int DEFAULT_PAGES = 50;
+
+	/**
+	 * Replacement policy used when none is given to the constructor,
+	 * overridable with -Dsimpledb.ReplacementPolicy=CLOCK|LRU_K|TWO_Q.
+	 */
+	public static final ReplacementPolicy.Kind DEFAULT_POLICY =
+			ReplacementPolicy.Kind.parse(System.getProperty("simpledb.ReplacementPolicy"),
+					ReplacementPolicy.Kind.CLOCK);
+
+	/**
+	 * Default number of pages a sequential scan reads ahead.
+	 */
+	public static final int DEFAULT_PREFETCH_WINDOW = 16;
+
+	/**
+	 * Whether new pools run in STEAL/NO-FORCE mode, overridable with
+	 * -Dsimpledb.StealNoForce=true.
+	 */
+	public static final boolean DEFAULT_STEAL_NO_FORCE = Boolean.getBoolean("simpledb.StealNoForce");
+
+	/**
+	 * Whether pools are off-heap when the constructor is not told,
+	 * overridable with -Dsimpledb.OffHeap=true. The arena is allocated with
+	 * ByteBuffer.allocateDirect, so big pools need -XX:MaxDirectMemorySize.
+	 */
+	public static final boolean DEFAULT_OFF_HEAP = Boolean.getBoolean("simpledb.OffHeap");
+
+	/**
+	 * Budget in bytes of the compressed second tier of new pools, 0 for
+	 * none; overridable with -Dsimpledb.SecondTierBytes=n.
+	 */
+	public static final long DEFAULT_SECOND_TIER_BYTES = Long.getLong("simpledb.SecondTierBytes", 0);
+
+	/**
+	 * How new pools handle lock requests that would wait, overridable with
+	 * -Dsimpledb.LockPolicy=DETECT|WAIT_DIE|WOUND_WAIT|NO_WAIT.
+	 */
+	public static final TransactionManager.Policy DEFAULT_LOCK_POLICY =
+			TransactionManager.Policy.parse(System.getProperty("simpledb.LockPolicy"),
+					TransactionManager.Policy.DETECT);
+
+	/**
+	 * Page locks a transaction may hold on one table before they are
+	 * escalated to a table lock, set with -Dsimpledb.LockEscalation=n; 0, the
+	 * default, never escalates.
+	 */
+	public static final int DEFAULT_LOCK_ESCALATION = Integer.getInteger("simpledb.LockEscalation", 0);
+
+	/**
+	 * Page locks all transactions may hold before they escalate whatever
+	 * page locks they take, set with -Dsimpledb.MaxPageLocks=n; 0, the
+	 * default, sets no bound.
+	 */
+	public static final int DEFAULT_MAX_PAGE_LOCKS = Integer.getInteger("simpledb.MaxPageLocks", 0);
+
+	/**
+	 * Whether new pools lock records rather than pages for heap tuple
+	 * updates, set with -Dsimpledb.RecordLocking=true; off by default.
+	 */
+	public static final boolean DEFAULT_RECORD_LOCKING = Boolean.getBoolean("simpledb.RecordLocking");
+
+	/**
+	 * Upper bound on the number of segments the pool is partitioned into,
+	 * and the smallest number of frames a segment is allowed to manage.
+	 */
+	private static final int MAX_SEGMENTS = 64;
+	private static final int MIN_SEGMENT_FRAMES = 16;
+
+	/**
+	 * A frame holds one resident page. Its latch is held exclusively while
+	 * the page is read from disk or written back, so that other threads
+	 * asking for the same page wait for the I/O instead of repeating it.
+	 * In an off-heap pool the frame also owns an arena slot with the image
+	 * of the page, and page is only set while the page is in use.
+	 * <p>
+	 * A frame takes as many pages of the pool as its page is large in units
+	 * of {@link #getPageSize()}: files with larger pages have larger frames.
+	 */
+	static class Frame {
+		final PageId pid;
+		/**
+		 * page size of the file of the page, and the size of the arena slot.
+		 */
+		final int size;
+		/**
+		 * number of pool pages the frame takes.
+		 */
+		final int units;
+		volatile Page page;
+		/**
+		 * arena slot of the frame, -1 in heap pools.
+		 */
+		int slot = -1;
+		/**
+		 * length of the page image in slot, 0 while there is none.
+		 */
+		volatile int imageLength = 0;
+		final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+		/**
+		 * End of the last log record holding the page; the log must be
+		 * forced up to here before the page is written.
+		 */
+		volatile long lsn = 0;
+		/**
+		 * The committed transaction whose update of the page was logged at
+		 * lsn, so that writing the page needs no further log record.
+		 */
+		volatile TransactionId committedBy;
+		/**
+		 * Transactions using the page, with the number of times each got it
+		 * and has not unpinned it yet. Guarded by the segment lock.
+		 */
+		final HashMap<TransactionId, Integer> pins = new HashMap<>();
+		/**
+		 * Number of times the page was requested since it became resident.
+		 * Guarded by the segment lock.
+		 */
+		int accesses = 0;
+
+		Frame(PageId pid, int size) {
+			this.pid = pid;
+			this.size = size;
+			this.units = unitsOf(size);
+		}
+
+		boolean isPinned() {
+			return !pins.isEmpty();
+		}
+
+		void pin(TransactionId tid) {
+			pins.merge(tid, 1, Integer::sum);
+			++accesses;
+		}
+
+		/**
+		 * Drop one pin of tid, or all of them.
+		 *
+		 * @return whether tid had pinned the page
+		 */
+		boolean unpin(TransactionId tid, boolean all) {
+			Integer n = pins.get(tid);
+			if (n == null)
+				return false;
+			if (all || n == 1)
+				pins.remove(tid);
+			else
+				pins.put(tid, n - 1);
+			return true;
+		}
+
+		boolean isLoaded() {
+			return page != null || imageLength > 0;
+		}
+
+		boolean isEvictable() {
+			Page p = page;
+			return p != null ? p.isDirty() == null : imageLength > 0;
+		}
+	}
+
+	/**
+	 * pageBuffer works as cache.
+	 * Resident pages are hash partitioned into segments. Each segment has
+	 * its own lock, page table and replacement policy, and only holds its
+	 * lock to look up or (un)register frames, never across disk I/O.
+	 */
+	private class Segment {
+		final ReentrantLock lock = new ReentrantLock();
+		final HashMap<PageId, Frame> frames = new HashMap<>();
+		final int index;
+		final ReplacementPolicy policy;
+
+		Segment(int index, ReplacementPolicy policy) {
+			this.index = index;
+			this.policy = policy;
+		}
+
+		/**
+		 * Evict one clean, unpinned page of this segment, if there is one.
+		 */
+		boolean evictOne() {
+			lock.lock();
+			try {
+				// the slot of an off-heap frame must not be in use.
+				PageId victim = policy.victim(pid -> {
+					Frame f = frames.get(pid);
+					return f.isEvictable() && !f.isPinned()
+							&& (arena == null || !f.latch.isWriteLocked());
+				});
+				return victim != null && evict(frames.get(victim));
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Evict the page pid if it is resident, clean and unused.
+		 */
+		boolean evict(PageId pid) {
+			lock.lock();
+			try {
+				Frame frame = frames.get(pid);
+				return frame != null && frame.isEvictable() && !frame.isPinned() && evict(frame);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Remove an evictable frame; the caller holds the segment lock.
+		 */
+		private boolean evict(Frame frame) {
+			if (arena != null && !frame.latch.writeLock().tryLock())
+				return false;
+			CompressedPageCache tier = secondTier;
+			if (tier != null)
+				tier.put(frame.pid, imageOf(frame));
+			frames.remove(frame.pid);
+			policy.remove(frame.pid);
+			retire(frame);
+			residentPages.addAndGet(-frame.units);
+			stats.evicted();
+			return true;
+		}
+
+		/**
+		 * @return the frame of the dirty, unpinned page this segment would
+		 * evict next, or null if it has none.
+		 */
+		Frame dirtyVictim() {
+			lock.lock();
+			try {
+				PageId victim = policy.victim(pid -> {
+					Frame f = frames.get(pid);
+					Page p = f.page;
+					return p != null && p.isDirty() != null && !f.isPinned();
+				});
+				return victim == null ? null : frames.get(victim);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private volatile int numPages;
+	private final Segment[] segments;
+
+	/**
+	 * number of frames in use, reserved by a pending read, or taken by a
+	 * private copy of a page updated under record locks, at most numPages
+	 * unless the pool is still giving back frames after a resize.
+	 */
+	private final AtomicInteger residentPages = new AtomicInteger(0);
+
+	/**
+	 * page images of an off-heap pool, null for heap pools.
+	 */
+	private final FrameArena arena;
+	/**
+	 * the arenas of an off-heap pool by slot size: arena for pages of
+	 * {@link #getPageSize()} bytes, and arenas grown on demand for files
+	 * with other page sizes.
+	 */
+	private final ConcurrentHashMap<Integer, FrameArena> arenas = new ConcurrentHashMap<>();
+
+	/**
+	 * compressed images of evicted clean pages, null if disabled.
+	 */
+	private volatile CompressedPageCache secondTier;
+
+	private final TransactionManager transactionManager;
+
+	private final BufferPoolStats stats = new BufferPoolStats();
+
+	/**
+	 * committed versions of pages for snapshot transactions.
+	 */
+	private final VersionStore versions = new VersionStore();
+
+	private volatile int prefetchWindow = DEFAULT_PREFETCH_WINDOW;
+
+	private volatile boolean stealNoForce = false;
+	/**
+	 * the background writer, running only in STEAL/NO-FORCE mode.
+	 */
+	private volatile PageCleaner cleaner;
+	/**
+	 * locks pages while the cleaner writes them.
+	 */
+	private final TransactionId cleanerTid = new TransactionId();
+
+	private volatile boolean recordLocking = DEFAULT_RECORD_LOCKING;
+	/**
+	 * the private copies of the heap pages each transaction updates under
+	 * record locks.
+	 */
+	private final Map<TransactionId, Map<PageId, RecordPage>> records = new ConcurrentHashMap<>();
+	/**
+	 * the transaction merging its records into each page, from prepareCommit
+	 * until it completes; guarded by itself.
+	 */
+	private final Map<PageId, TransactionId> mergers = new HashMap<>();
+
+	/**
+	 * A private copy of a heap page a transaction updates under record
+	 * locks, with the slots it has locked. Its other slots may be stale.
+	 * Until merged, it takes a frame of the pool, as the page would.
+	 */
+	private static class RecordPage {
+		final HeapPage page;
+		final BitSet slots = new BitSet();
+		boolean charged = true;
+		boolean merged = false;
+
+		RecordPage(HeapPage page) {
+			this.page = page;
+		}
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 */
+	public BufferPool(int numPages) {
+		this(numPages, DEFAULT_POLICY);
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and evicts
+	 * according to the given replacement policy.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 * @param kind     the page replacement policy.
+	 */
+	public BufferPool(int numPages, ReplacementPolicy.Kind kind) {
+		this(numPages, kind, DEFAULT_OFF_HEAP);
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages, evicts
+	 * according to the given replacement policy, and keeps page images in
+	 * direct buffers if offHeap is set.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 * @param kind     the page replacement policy.
+	 * @param offHeap  whether to keep resident pages off-heap.
+	 */
+	public BufferPool(int numPages, ReplacementPolicy.Kind kind, boolean offHeap) {
+		// some code goes here
+		this.numPages = numPages;
+		arena = offHeap ? new FrameArena(numPages, pageSize) : null;
+		if (arena != null)
+			arenas.put(pageSize, arena);
+		int numSegments = Math.max(1, Math.min(MAX_SEGMENTS, numPages / MIN_SEGMENT_FRAMES));
+		segments = new Segment[numSegments];
+		for (int i = 0; i < numSegments; ++i)
+			segments[i] = new Segment(i, kind.create(Math.max(1, numPages / numSegments)));
+		setSecondTier(DEFAULT_SECOND_TIER_BYTES);
+		transactionManager = new TransactionManager(DEFAULT_LOCK_POLICY, stats);
+		transactionManager.setEscalation(DEFAULT_LOCK_ESCALATION, DEFAULT_MAX_PAGE_LOCKS);
+		if (DEFAULT_STEAL_NO_FORCE)
+			startCleaner();
+	}
+
+	/**
+	 * @return whether the pool keeps page images off-heap.
+	 */
+	public boolean isOffHeap() {
+		return arena != null;
+	}
+
+	/**
+	 * Keep deflated images of evicted clean pages in a second tier of at
+	 * most budget bytes, so that reading them again needs no disk access.
+	 * A budget of 0 disables the tier; changing it drops the images kept so
+	 * far.
+	 */
+	public void setSecondTier(long budget) {
+		if (budget < 0)
+			throw new IllegalArgumentException("second tier budget must not be negative");
+		secondTier = budget == 0 ? null : new CompressedPageCache(budget);
+	}
+
+	/**
+	 * @return the number of pages in the second tier.
+	 */
+	public int getSecondTierPages() {
+		CompressedPageCache tier = secondTier;
+		return tier == null ? 0 : tier.size();
+	}
+
+	/**
+	 * Choose between detecting deadlocks and preventing them. Should only be
+	 * called while no transaction waits for a lock.
+	 */
+	public void setLockPolicy(TransactionManager.Policy policy) {
+		transactionManager.setPolicy(policy);
+	}
+
+	public TransactionManager.Policy getLockPolicy() {
+		return transactionManager.getPolicy();
+	}
+
+	/**
+	 * Escalate the page locks of a transaction on a table to a table lock
+	 * once it holds more than threshold of them, or while the transactions
+	 * hold more than maxPageLocks page locks in all. 0 disables either.
+	 */
+	public void setLockEscalation(int threshold, int maxPageLocks) {
+		transactionManager.setEscalation(threshold, maxPageLocks);
+	}
+
+	/**
+	 * Lock records rather than pages for heap tuple updates, or not. Records
+	 * are only locked in NO-STEAL/FORCE mode. Should only be called while no
+	 * transaction is running.
+	 */
+	public void setRecordLocking(boolean enable) {
+		recordLocking = enable;
+	}
+
+	/**
+	 * @return whether tid locks records rather than pages to update heap
+	 * tuples.
+	 */
+	public boolean locksRecords(TransactionId tid) {
+		return recordLocking && !stealNoForce && versions.snapshotOf(tid) == null
+				&& versions.workspaceOf(tid) == null;
+	}
+
+	/**
+	 * @return whether the pool runs in STEAL/NO-FORCE mode.
+	 */
+	public boolean isStealNoForce() {
+		return stealNoForce;
+	}
+
+	/**
+	 * Switch between NO-STEAL/FORCE and STEAL/NO-FORCE mode. Should only be
+	 * called while no transaction is running; leaving STEAL/NO-FORCE mode
+	 * writes back the committed pages the cleaner has not written yet.
+	 */
+	public synchronized void setStealNoForce(boolean enable) throws IOException {
+		if (enable == stealNoForce)
+			return;
+		if (enable) {
+			startCleaner();
+		} else {
+			stopCleaner();
+			flushAllPages();
+			stealNoForce = false;
+		}
+	}
+
+	/**
+	 * Stop background work of a pool the Database no longer uses. Dirty
+	 * pages are not written back, as if the pool was lost in a crash.
+	 */
+	synchronized void retire() {
+		if (cleaner != null)
+			stopCleaner();
+	}
+
+	private void stopCleaner() {
+		PageCleaner c = cleaner;
+		cleaner = null;
+		c.wakeUp();
+	}
+
+	private void startCleaner() {
+		stealNoForce = true;
+		cleaner = new PageCleaner(this);
+		cleaner.start();
+	}
+
+	boolean isCleaner(PageCleaner c) {
+		return cleaner == c;
+	}
+
+	/**
+	 * Start a round of the background cleaner now, if there is one.
+	 */
+	void wakeCleaner() {
+		PageCleaner c = cleaner;
+		if (c != null)
+			c.wakeUp();
+	}
+
+	/**
+	 * @return the counters of this pool.
+	 */
+	public BufferPoolStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return the maximum number of pages this pool caches.
+	 */
+	public int getNumPages() {
+		return numPages;
+	}
+
+	/**
+	 * @return the number of frames in use, more than getNumPages() while
+	 * the pool is shrinking.
+	 */
+	int getResidentPages() {
+		return residentPages.get();
+	}
+
+	/**
+	 * Change the number of frames of the pool while it is in use. Growing
+	 * takes effect at once. Shrinking evicts clean pages nobody uses right
+	 * away, one at a time, and leaves the others resident: each later miss
+	 * gives back one more frame than it takes until the pool fits, so no
+	 * transaction fails or loses its pages because of the resize. The
+	 * number of segments stays the one chosen when the pool was created.
+	 *
+	 * @param numPages the new maximum number of pages in this buffer pool.
+	 */
+	public synchronized void resize(int numPages) {
+		if (numPages < 1)
+			throw new IllegalArgumentException("a buffer pool needs at least one page");
+		if (arena != null)
+			arena.grow(numPages);
+		for (Segment seg : segments) {
+			seg.lock.lock();
+			try {
+				seg.policy.resize(Math.max(1, numPages / segments.length));
+			} finally {
+				seg.lock.unlock();
+			}
+		}
+		this.numPages = numPages;
+		for (int i = 0; residentPages.get() > numPages; ++i)
+			if (!evictCleanPage(segments[i % segments.length]))
+				break;
+	}
+
+	/**
+	 * @return number of pages scans should read ahead. Never more than a
+	 * quarter of the pool, so that prefetched pages do not evict each other.
+	 */
+	public int getPrefetchWindow() {
+		return Math.min(prefetchWindow, numPages / 4);
+	}
+
+	/**
+	 * Set the read-ahead window of sequential scans; 0 disables read-ahead.
+	 */
+	public void setPrefetchWindow(int pages) {
+		if (pages < 0)
+			throw new IllegalArgumentException("prefetch window must not be negative");
+		prefetchWindow = pages;
+	}
+
+	public static int getPageSize() {
+		return pageSize;
+	}
+
+	// THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+	public static void setPageSize(int pageSize) {
+		BufferPool.pageSize = pageSize;
+	}
+
+	// THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+	public static void resetPageSize() {
+		BufferPool.pageSize = PAGE_SIZE;
+	}
+
+	/**
+	 * Retrieve the specified page with the associated permissions.
+	 * Will acquire a lock and may block if that lock is held by another
+	 * transaction.
+	 * <p>
+	 * The retrieved page should be looked up in the buffer pool.  If it
+	 * is present, it should be returned.  If it is not present, it should
+	 * be added to the buffer pool and returned.  If there is insufficient
+	 * space in the buffer pool, an page should be evicted and the new page
+	 * should be added in its place.
+	 * <p>
+	 * The page is pinned for tid until it calls {@link #unpinPage} or
+	 * completes; eviction leaves pinned pages alone.
+	 *
+	 * @param tid  the ID of the transaction requesting the page
+	 * @param pid  the ID of the requested page
+	 * @param perm the requested permissions on the page
+	 */
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		return getPage(tid, pid, perm, null);
+	}
+
+	/**
+	 * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+	 * but on a miss bring the page into a frame of the ring of strategy.
+	 *
+	 * @param strategy the ring of a bulk read, or null to use the whole pool
+	 */
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferAccessStrategy strategy)
+			throws TransactionAbortedException, DbException {
+		Long snapshot = versions.snapshotOf(tid);
+		if (snapshot != null)
+			return snapshotPage(tid, pid, perm, snapshot, strategy);
+		VersionStore.Workspace ws = versions.workspaceOf(tid);
+		if (ws != null && !ws.validated)
+			return optimisticPage(tid, ws, pid, perm, strategy);
+		Map<PageId, RecordPage> mine = records.isEmpty() ? null : records.get(tid);
+		if (mine != null && mine.containsKey(pid))
+			return foldRecords(tid, pid, strategy);
+
+		transactionManager.acquireLock(tid, pid, perm);
+
+		return fetchPage(tid, pid, strategy);
+	}
+
+	/**
+	 * Run tid as a read-only snapshot transaction: until it completes,
+	 * getPage returns the pages as they were committed when it began,
+	 * without locking them, so that it neither waits for writers nor holds
+	 * them up. The pages returned are private copies, not pinned.
+	 *
+	 * @param tid a transaction that has not locked any page yet
+	 */
+	public void beginSnapshot(TransactionId tid) {
+		versions.begin(tid);
+	}
+
+	/**
+	 * @return whether tid runs as a snapshot transaction.
+	 */
+	public boolean isSnapshot(TransactionId tid) {
+		return versions.snapshotOf(tid) != null;
+	}
+
+	/**
+	 * Run tid as an optimistic transaction: getPage takes no locks, but
+	 * returns the pages as last committed, and private copies of the pages
+	 * tid writes, which other transactions do not see. tid is validated
+	 * when it commits, and must abort if another transaction has since
+	 * committed a page it read.
+	 *
+	 * @param tid a transaction that has not locked any page yet
+	 * @see #validate(TransactionId)
+	 */
+	public void beginOptimistic(TransactionId tid) {
+		versions.beginOptimistic(tid);
+	}
+
+	/**
+	 * @return whether tid runs as an optimistic transaction.
+	 */
+	public boolean isOptimistic(TransactionId tid) {
+		return versions.workspaceOf(tid) != null;
+	}
+
+	/**
+	 * Validate an optimistic transaction that is about to commit, and bring
+	 * the pages it wrote into the pool, locked and dirty, so that it
+	 * commits like any other transaction. Does nothing for transactions that
+	 * are not optimistic, or have been validated.
+	 *
+	 * @param tid the committing transaction
+	 * @throws TransactionAbortedException if a page tid read was committed
+	 *                                     since, or a page it wrote is in use;
+	 *                                     tid must then abort
+	 */
+	public void validate(TransactionId tid) throws TransactionAbortedException {
+		VersionStore.Workspace ws = versions.workspaceOf(tid);
+		if (ws == null || ws.validated)
+			return;
+		if (!versions.validate(tid, ws, pid -> transactionManager.tryAcquireLock(tid, pid, Permissions.READ_WRITE))) {
+			// an optimistic transaction holds no locks but those validation took.
+			transactionManager.release(tid);
+			throw new TransactionAbortedException();
+		}
+		try {
+			for (Page page : ws.writes.values())
+				pin2pool(page);
+		} catch (DbException e) {
+			// no room for the pages among the dirty pages of the pool; the
+			// locks stay, so that the abort drops those installed already.
+			throw new TransactionAbortedException();
+		}
+		ws.validated = true;
+	}
+
+	/**
+	 * @return the number of page versions kept for snapshots.
+	 */
+	int getVersionCount() {
+		return versions.size();
+	}
+
+	/**
+	 * Return pid as committed by the commit snapshot, which a snapshot
+	 * transaction may only read.
+	 */
+	private Page snapshotPage(TransactionId tid, PageId pid, Permissions perm, long snapshot,
+			BufferAccessStrategy strategy) throws DbException {
+		if (perm != Permissions.READ_ONLY)
+			throw new DbException("snapshot transaction " + tid + " cannot write " + pid);
+		return committedPage(tid, pid, snapshot, strategy);
+	}
+
+	/**
+	 * Return pid for the optimistic transaction of ws: its private copy if
+	 * it writes the page, or else the page as last committed, noting the
+	 * commit it was read at. A page to be written is copied into the write
+	 * set.
+	 */
+	private Page optimisticPage(TransactionId tid, VersionStore.Workspace ws, PageId pid, Permissions perm,
+			BufferAccessStrategy strategy) throws DbException {
+		Page page = ws.writes.get(pid);
+		if (page != null)
+			return page;
+		long committed = versions.committed();
+		page = committedPage(tid, pid, committed, strategy);
+		ws.reads.putIfAbsent(pid, committed);
+		if (perm == Permissions.READ_WRITE) {
+			// the version may be shared with snapshots.
+			page = page.getBeforeImage();
+			ws.writes.put(pid, page);
+		}
+		return page;
+	}
+
+	/**
+	 * Return pid as committed by the commit snapshot: a version kept for
+	 * snapshots, or else the before image of the resident page, unless a
+	 * commit or abort changed it while the image was taken.
+	 */
+	private Page committedPage(TransactionId tid, PageId pid, long snapshot, BufferAccessStrategy strategy)
+			throws DbException {
+		while (true) {
+			long epoch = versions.epoch();
+			Page old = versions.read(pid, snapshot);
+			if (old != null)
+				return old;
+			Page committed;
+			try {
+				committed = fetchPage(tid, pid, strategy).getBeforeImage();
+			} finally {
+				unpin(tid, pid, true);
+			}
+			if (versions.read(pid, snapshot) == null && versions.epoch() == epoch)
+				return committed;
+		}
+	}
+
+	/**
+	 * Retrieve the heap page of rid for tid to update that record, locking
+	 * only the record, so that other transactions may update the other
+	 * records of the page meanwhile. The page is a private copy, merged
+	 * into the pool when tid commits, unless tid already locks the page as
+	 * a whole. May block like getPage.
+	 *
+	 * @see #locksRecords(TransactionId)
+	 */
+	public HeapPage getRecordPage(TransactionId tid, RecordId rid)
+			throws TransactionAbortedException, DbException {
+		PageId pid = rid.getPageId();
+		if (!hasRecordPage(tid, pid) && transactionManager.coversPage(tid, pid, Permissions.READ_ONLY))
+			return (HeapPage) getPage(tid, pid, Permissions.READ_WRITE);
+		transactionManager.acquireRecordLock(tid, rid, Permissions.READ_WRITE);
+		return recordPage(tid, rid);
+	}
+
+	/**
+	 * Retrieve the heap page of rid like {@link #getRecordPage}, but only if
+	 * the record can be locked at once.
+	 *
+	 * @return the page, or null if another transaction uses the record
+	 */
+	public HeapPage tryGetRecordPage(TransactionId tid, RecordId rid)
+			throws TransactionAbortedException, DbException {
+		PageId pid = rid.getPageId();
+		if (!hasRecordPage(tid, pid) && transactionManager.coversPage(tid, pid, Permissions.READ_ONLY)) {
+			if (!transactionManager.tryAcquireLock(tid, pid, Permissions.READ_WRITE))
+				return null;
+			return (HeapPage) getPage(tid, pid, Permissions.READ_WRITE);
+		}
+		if (!transactionManager.tryAcquireRecordLock(tid, rid, Permissions.READ_WRITE))
+			return null;
+		return recordPage(tid, rid);
+	}
+
+	private boolean hasRecordPage(TransactionId tid, PageId pid) {
+		Map<PageId, RecordPage> mine = records.get(tid);
+		return mine != null && mine.containsKey(pid);
+	}
+
+	/**
+	 * @return the heap page pid as tid would update it, to look for free
+	 * slots without locks: its private copy, or else the page in the pool.
+	 * A slot found free may be taken before it is locked.
+	 */
+	public HeapPage peekRecords(TransactionId tid, HeapPageId pid) throws DbException {
+		Map<PageId, RecordPage> mine = records.get(tid);
+		RecordPage r = mine == null ? null : mine.get(pid);
+		if (r != null)
+			return r.page;
+		try {
+			return (HeapPage) fetchPage(tid, pid, null);
+		} finally {
+			unpinPage(tid, pid);
+		}
+	}
+
+	/**
+	 * Return the page of rid for tid, which has locked rid or the whole page.
+	 */
+	private HeapPage recordPage(TransactionId tid, RecordId rid)
+			throws TransactionAbortedException, DbException {
+		PageId pid = rid.getPageId();
+		Map<PageId, RecordPage> mine = records.get(tid);
+		RecordPage r = mine == null ? null : mine.get(pid);
+		if (r == null && transactionManager.coversPage(tid, pid, Permissions.READ_WRITE))
+			return (HeapPage) getPage(tid, pid, Permissions.READ_WRITE);
+
+		HeapPage copy = null;
+		HeapPage resident = (HeapPage) fetchPage(tid, pid, null);
+		try {
+			synchronized (resident) {
+				if (r == null)
+					copy = new HeapPage((HeapPageId) pid, resident.getPageData());
+				else if (!r.slots.get(rid.tupleno()))
+					// the record may have been committed since the copy was taken.
+					r.page.copySlot(resident, rid.tupleno());
+			}
+		} catch (IOException e) {
+			throw new DbException("cannot copy page " + pid + ": " + e.getMessage());
+		} finally {
+			unpinPage(tid, pid);
+		}
+		if (r == null) {
+			// the page itself may make room for its copy.
+			reserveFrame(segmentFor(pid), pageSizeOf(pid));
+			r = new RecordPage(copy);
+			records.computeIfAbsent(tid, t -> new ConcurrentHashMap<>()).put(pid, r);
+		}
+		r.slots.set(rid.tupleno());
+		return r.page;
+	}
+
+	/**
+	 * Give back the frame the private copy r of pid takes.
+	 */
+	private void discharge(PageId pid, RecordPage r) {
+		if (!r.charged)
+			return;
+		r.charged = false;
+		residentPages.addAndGet(-unitsOf(pageSizeOf(pid)));
+	}
+
+	/**
+	 * Hand tid the page in the pool in place of its private copy, once it
+	 * uses the page as a whole: lock the page exclusively, and merge the
+	 * records of tid into it.
+	 */
+	private Page foldRecords(TransactionId tid, PageId pid, BufferAccessStrategy strategy)
+			throws TransactionAbortedException, DbException {
+		transactionManager.acquireLock(tid, pid, Permissions.READ_WRITE);
+		RecordPage r = records.get(tid).remove(pid);
+		discharge(pid, r);
+		Page page = fetchPage(tid, pid, strategy);
+		merge(tid, r, (HeapPage) page);
+		return page;
+	}
+
+	/**
+	 * Copy the records of tid from its private copy into the page in the
+	 * pool, pinned by tid, which becomes dirty.
+	 */
+	private void merge(TransactionId tid, RecordPage r, HeapPage resident) {
+		synchronized (resident) {
+			for (int slot = r.slots.nextSetBit(0); slot >= 0; slot = r.slots.nextSetBit(slot + 1))
+				resident.copySlot(r.page, slot);
+			resident.markDirty(true, tid);
+		}
+	}
+
+	/**
+	 * Merge the records a committing transaction updated into the pages in
+	 * the pool. Until tid completes, it alone merges into these pages, so
+	 * that they only hold records that are committed or being committed by
+	 * tid when they are flushed and their before images advanced.
+	 */
+	private void mergeRecords(TransactionId tid) throws IOException {
+		Map<PageId, RecordPage> mine = records.get(tid);
+		if (mine == null)
+			return;
+		List<PageId> pids = new ArrayList<>();
+		for (Map.Entry<PageId, RecordPage> e : mine.entrySet())
+			if (!e.getValue().merged)
+				pids.add(e.getKey());
+		if (pids.isEmpty())
+			return;
+
+		claim(tid, pids);
+		try {
+			for (PageId pid : pids) {
+				RecordPage r = mine.get(pid);
+				discharge(pid, r);
+				merge(tid, r, (HeapPage) fetchPage(tid, pid, null));
+				r.merged = true;
+				// dirty, so it stays until flushed.
+				unpinPage(tid, pid);
+			}
+		} catch (DbException e) {
+			throw new IOException("cannot merge the records of " + tid + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Claim pids for tid to merge into, waiting for the transactions merging
+	 * into them. The pages are claimed in order, so claims cannot deadlock.
+	 */
+	private void claim(TransactionId tid, List<PageId> pids) {
+		pids.sort(PAGE_ORDER);
+		synchronized (mergers) {
+			for (PageId pid : pids) {
+				TransactionId merger;
+				while ((merger = mergers.get(pid)) != null && !merger.equals(tid)) {
+					try {
+						mergers.wait();
+					} catch (InterruptedException e) {
+					}
+				}
+				mergers.put(pid, tid);
+			}
+		}
+	}
+
+	private void unclaim(TransactionId tid, Collection<PageId> pids) {
+		synchronized (mergers) {
+			for (PageId pid : pids)
+				mergers.remove(pid, tid);
+			mergers.notifyAll();
+		}
+	}
+
+	/**
+	 * Lock a whole table for tid, shared to read it or exclusive to write
+	 * it, so that getPage takes no locks on its pages. For scans and bulk
+	 * loads, which would otherwise lock every page; point accesses are
+	 * better off with page locks, which let other transactions use the rest
+	 * of the table. May block like getPage.
+	 *
+	 * @param tid     the ID of the transaction locking the table
+	 * @param tableId the ID of the table to lock
+	 * @param perm    the permissions tid needs on all pages of the table
+	 */
+	public void lockTable(TransactionId tid, int tableId, Permissions perm)
+			throws TransactionAbortedException {
+		// a snapshot reads without locks.
+		if (perm == Permissions.READ_ONLY && versions.snapshotOf(tid) != null)
+			return;
+		// nor does an optimistic transaction before it is validated.
+		VersionStore.Workspace ws = versions.workspaceOf(tid);
+		if (ws != null && !ws.validated)
+			return;
+		transactionManager.acquireTableLock(tid, tableId, perm == Permissions.READ_ONLY
+				? TransactionManager.LockType.SHARED : TransactionManager.LockType.EXCLUSIVE);
+	}
+
+	/**
+	 * Return the resident copy of a page pinned for tid, reading it from
+	 * disk on a miss. Only the segment of pid is locked, and only while its
+	 * page table is consulted; the read itself happens under the latch of
+	 * the new frame.
+	 */
+	private Page fetchPage(TransactionId tid, PageId pid, BufferAccessStrategy strategy) throws DbException {
+		Segment seg = segmentFor(pid);
+		while (true) {
+			Frame frame = lookup(seg, pid, tid);
+			boolean loader = false;
+			if (frame != null)
+				stats.hit(pid);
+
+			if (frame == null) {
+				int size = pageSizeOf(pid);
+				recycle(strategy);
+				reserveFrame(seg, size);
+				seg.lock.lock();
+				try {
+					frame = seg.frames.get(pid);
+					if (frame == null) {
+						frame = newFrame(pid, size);
+						frame.latch.writeLock().lock();
+						seg.frames.put(pid, frame);
+						seg.policy.admit(pid);
+						if (strategy != null)
+							strategy.add(pid);
+						loader = true;
+						stats.miss(pid);
+					} else {
+						seg.policy.access(pid);
+						stats.hit(pid);
+					}
+					frame.pin(tid);
+				} finally {
+					seg.lock.unlock();
+				}
+				if (!loader)
+					residentPages.addAndGet(-unitsOf(size));
+			}
+
+			if (loader) {
+				try {
+					readInto(frame, Database.getCatalog().getDatabaseFile(pid.getTableId()));
+				} finally {
+					if (!frame.isLoaded())
+						unregister(seg, frame);
+					frame.latch.writeLock().unlock();
+				}
+			}
+
+			// waits for a pending read of the same page.
+			Page page = materialize(frame);
+			if (page != null)
+				return page;
+			// the pending read failed, or the page was evicted; try again.
+			seg.lock.lock();
+			try {
+				frame.unpin(tid, false);
+			} finally {
+				seg.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Free the frame the next page of a bulk read is to take over, if its
+	 * page can be evicted.
+	 */
+	private void recycle(BufferAccessStrategy strategy) {
+		PageId victim = strategy == null ? null : strategy.victim();
+		if (victim != null)
+			segmentFor(victim).evict(victim);
+	}
+
+	/**
+	 * Tell the pool that tid is done with a page it got from getPage, so
+	 * that the page may be evicted again. Each getPage is matched by one
+	 * unpinPage; pins left over are dropped when the transaction completes.
+	 * The lock on the page is kept.
+	 *
+	 * @param tid the transaction that got the page
+	 * @param pid the ID of the page
+	 */
+	public void unpinPage(TransactionId tid, PageId pid) {
+		unpin(tid, pid, false);
+	}
+
+	private void unpin(TransactionId tid, PageId pid, boolean all) {
+		Segment seg = segmentFor(pid);
+		seg.lock.lock();
+		try {
+			Frame frame = seg.frames.get(pid);
+			if (frame == null || !frame.unpin(tid, all) || frame.isPinned())
+				return;
+		} finally {
+			seg.lock.unlock();
+		}
+		// a page tid may write can hold changes it has not marked dirty yet.
+		if (!transactionManager.coversPage(tid, pid, Permissions.READ_WRITE))
+			demote(pid);
+	}
+
+	/**
+	 * @return the page size of the file of pid.
+	 */
+	private static int pageSizeOf(PageId pid) {
+		try {
+			return Database.getCatalog().getDatabaseFile(pid.getTableId()).getPageSize();
+		} catch (NoSuchElementException e) {
+			// reading the page will fail.
+			return pageSize;
+		}
+	}
+
+	/**
+	 * @return the number of pool pages a frame for a page of size bytes takes.
+	 */
+	private static int unitsOf(int size) {
+		return Math.max(1, (size + pageSize - 1) / pageSize);
+	}
+
 	/**
-	 * Bytes per page, including header.
+	 * Create a frame, with an arena slot if the pool is off-heap. The
+	 * caller must have reserved a frame of the pool.
+	 *
+	 * @param size the page size of the file of pid
 	 */
-	private static final int PAGE_SIZE = 4096;
+	private Frame newFrame(PageId pid, int size) {
+		Frame frame = new Frame(pid, size);
+		if (arena != null)
+			frame.slot = arenaOf(frame).allocate();
+		return frame;
+	}
 
-	private static int pageSize = PAGE_SIZE;
+	private FrameArena arenaOf(Frame frame) {
+		return arenas.computeIfAbsent(frame.size, size -> new FrameArena(0, size));
+	}
 
 	/**
-	 * Default number of pages passed to the constructor. This is used by
-	 * other classes. BufferPool should use the numPages argument to the
-	 * constructor instead.
+	 * @return a buffer over the arena slot of an off-heap frame.
 	 */
-	public static final int DEFAULT_PAGES = 50;
+	private ByteBuffer slotOf(Frame frame) {
+		return arenaOf(frame).slot(frame.slot);
+	}
 
 	/**
-	 * pageBuffer works as cache.
-	 * We implement least recently used eviction policy,
-	 * thus need to maintain an recently used ordering in this buffer.
-	 * The most recently used page is lifted to front.
+	 * Give back the slot of a frame that has left the page table. Off-heap
+	 * frames must be latched by the caller.
 	 */
-	private int numPages;
+	private void retire(Frame frame) {
+		if (arena == null)
+			return;
+		frame.page = null;
+		frame.imageLength = 0;
+		arenaOf(frame).release(frame.slot);
+		frame.slot = -1;
+		frame.latch.writeLock().unlock();
+	}
 
-	private static ConcurrentHashMap<PageId, Page> pid2page;
-	private static TransactionManager transactionManager;
+	/**
+	 * Read a page into a latched frame: as a Page object, or as an image in
+	 * the arena if the pool is off-heap.
+	 */
+	private void readInto(Frame frame, DbFile file) {
+		if (readFromSecondTier(frame, file))
+			return;
+		long start = System.nanoTime();
+		if (arena == null) {
+			frame.page = file.readPage(frame.pid);
+			stats.read(1, bytesOf(frame.pid), System.nanoTime() - start);
+			return;
+		}
+		ByteBuffer image = slotOf(frame);
+		file.readPageImage(frame.pid, image);
+		frame.imageLength = image.position();
+		stats.read(1, frame.imageLength, System.nanoTime() - start);
+	}
 
 	/**
-	 * Creates a BufferPool that caches up to numPages pages.
+	 * Fill a latched frame with the image the second tier keeps of its page.
 	 *
-	 * @param numPages maximum number of pages in this buffer pool.
+	 * @return whether the tier had the page
 	 */
-	public BufferPool(int numPages) {
-		// some code goes here
-		this.numPages = numPages;
-		pid2page = new ConcurrentHashMap<>();
-		transactionManager = new TransactionManager(this);
+	private boolean readFromSecondTier(Frame frame, DbFile file) {
+		CompressedPageCache tier = secondTier;
+		byte[] data = tier == null ? null : tier.take(frame.pid);
+		if (data == null)
+			return false;
+		if (arena == null) {
+			try {
+				frame.page = file.decodePage(frame.pid, data);
+			} catch (UnsupportedOperationException e) {
+				return false;
+			}
+		} else {
+			slotOf(frame).put(data);
+			frame.imageLength = data.length;
+		}
+		stats.secondTierHit();
+		return true;
 	}
 
-	public static int getPageSize() {
-		return pageSize;
+	/**
+	 * @return the image of the page of a loaded frame; off-heap frames must
+	 * be latched.
+	 */
+	private byte[] imageOf(Frame frame) {
+		Page page = frame.page;
+		if (page != null)
+			return page.getPageData();
+		byte[] data = new byte[frame.imageLength];
+		slotOf(frame).get(data);
+		return data;
 	}
 
-	// THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-	public static void setPageSize(int pageSize) {
-		BufferPool.pageSize = pageSize;
+	/**
+	 * @return the size of the page pid on disk.
+	 */
+	private static int bytesOf(PageId pid) {
+		if (pid instanceof BTreePageId && ((BTreePageId) pid).pgcateg() == BTreePageId.ROOT_PTR)
+			return BTreeRootPtrPage.getPageSize();
+		return pageSizeOf(pid);
 	}
 
-	// THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
-	public static void resetPageSize() {
-		BufferPool.pageSize = PAGE_SIZE;
+	/**
+	 * Write a page to its file, counting the write.
+	 */
+	private void write(DbFile file, Page page) throws IOException {
+		if (page.isDirty() != null)
+			versions.stash(page);
+		CompressedPageCache tier = secondTier;
+		if (tier != null)
+			tier.remove(page.getId());
+		long start = System.nanoTime();
+		file.writePage(page);
+		stats.written(1, bytesOf(page.getId()), System.nanoTime() - start);
 	}
 
 	/**
-	 * Retrieve the specified page with the associated permissions.
-	 * Will acquire a lock and may block if that lock is held by another
-	 * transaction.
-	 * <p>
-	 * The retrieved page should be looked up in the buffer pool.  If it
-	 * is present, it should be returned.  If it is not present, it should
-	 * be added to the buffer pool and returned.  If there is insufficient
-	 * space in the buffer pool, an page should be evicted and the new page
-	 * should be added in its place.
+	 * Return the page of a frame, building it from the image in the arena
+	 * if the page is not in use yet. Waits for pending reads of the page.
 	 *
-	 * @param tid  the ID of the transaction requesting the page
-	 * @param pid  the ID of the requested page
-	 * @param perm the requested permissions on the page
+	 * @return the page, or null if the frame no longer holds it
 	 */
-	public synchronized Page getPage(TransactionId tid, PageId pid, Permissions perm)
-			throws TransactionAbortedException, DbException {
+	private Page materialize(Frame frame) {
+		Page page = frame.page;
+		if (page != null)
+			return page;
+		frame.latch.writeLock().lock();
+		try {
+			if (frame.page == null && frame.imageLength > 0) {
+				byte[] data = new byte[frame.imageLength];
+				slotOf(frame).get(data);
+				DbFile file = Database.getCatalog().getDatabaseFile(frame.pid.getTableId());
+				frame.page = file.decodePage(frame.pid, data);
+			}
+			return frame.page;
+		} finally {
+			frame.latch.writeLock().unlock();
+		}
+	}
 
-		transactionManager.acquireLock(tid, pid, perm);
+	/**
+	 * Keep only the image of a clean page that nobody has pinned, so that
+	 * its Page object can be garbage collected. Heap pools keep their pages.
+	 */
+	private void demote(PageId pid) {
+		if (arena == null)
+			return;
+		Segment seg = segmentFor(pid);
+		seg.lock.lock();
+		try {
+			Frame frame = seg.frames.get(pid);
+			if (frame == null || frame.isPinned() || !frame.latch.writeLock().tryLock())
+				return;
+			try {
+				Page page = frame.page;
+				if (page != null && page.isDirty() == null && frame.imageLength > 0)
+					frame.page = null;
+			} finally {
+				frame.latch.writeLock().unlock();
+			}
+		} finally {
+			seg.lock.unlock();
+		}
+	}
+
+	/**
+	 * Copy the contents of a page to the arena slot of its latched frame.
+	 */
+	private void saveImage(Frame frame, Page page) {
+		if (arena == null)
+			return;
+		byte[] data = page.getPageData();
+		slotOf(frame).put(data);
+		frame.imageLength = data.length;
+	}
+
+	private Segment segmentFor(PageId pid) {
+		int h = pid.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	/**
+	 * Look up the frame of a resident page and record the access.
+	 *
+	 * @param tid the transaction to pin the page for, or null
+	 */
+	private Frame lookup(Segment seg, PageId pid, TransactionId tid) {
+		seg.lock.lock();
+		try {
+			Frame frame = seg.frames.get(pid);
+			if (frame != null) {
+				seg.policy.access(pid);
+				if (tid != null)
+					frame.pin(tid);
+			}
+			return frame;
+		} finally {
+			seg.lock.unlock();
+		}
+	}
+
+	private void unregister(Segment seg, Frame frame) {
+		seg.lock.lock();
+		try {
+			if (seg.frames.get(frame.pid) == frame) {
+				seg.frames.remove(frame.pid);
+				seg.policy.remove(frame.pid);
+				if (arena != null)
+					frame.latch.writeLock().lock();
+				retire(frame);
+				residentPages.addAndGet(-frame.units);
+			}
+		} finally {
+			seg.lock.unlock();
+		}
+	}
+
+	/**
+	 * Claim a frame of the pool for a page about to become resident,
+	 * evicting pages until there is room.
+	 *
+	 * @param size the page size of the file of the page
+	 */
+	private void reserveFrame(Segment preferred, int size) throws DbException {
+		int units = unitsOf(size);
+		if (units > numPages)
+			throw new DbException("a page of " + size + " bytes does not fit in the pool");
+		if (residentPages.addAndGet(units) > numPages + units) {
+			// the pool is shrinking: take the frames of victims, and give
+			// back one more if a page can go without hurting anybody.
+			try {
+				for (int i = 0; i < units; ++i)
+					evictPage(preferred);
+			} catch (DbException e) {
+				residentPages.addAndGet(-units);
+				throw e;
+			}
+			evictCleanPage(preferred);
+			return;
+		}
+		residentPages.addAndGet(-units);
+		while (residentPages.addAndGet(units) > numPages) {
+			residentPages.addAndGet(-units);
+			evictPage(preferred);
+		}
+	}
+
+	/**
+	 * Like reserveFrame, but only evicts clean pages nobody uses, and gives
+	 * up instead of failing when there is none.
+	 */
+	private boolean tryReserveFrame(Segment preferred, int size) {
+		int units = unitsOf(size);
+		// no read-ahead while a resize is giving back frames.
+		if (residentPages.get() > numPages)
+			return false;
+		while (residentPages.addAndGet(units) > numPages) {
+			residentPages.addAndGet(-units);
+			if (!evictCleanPage(preferred))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Evict a clean page, trying the segment that needs the frame first and
+	 * then the others.
+	 */
+	private boolean evictCleanPage(Segment preferred) {
+		for (int i = 0; i < segments.length; ++i)
+			if (segments[(preferred.index + i) % segments.length].evictOne())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Bring pages into the pool for read-ahead, without taking any locks.
+	 * This is best effort: resident pages are skipped, prefetching stops
+	 * as soon as no frame can be freed, and read errors are ignored (the
+	 * page will simply be read again on demand). Runs of consecutive heap
+	 * pages are read with a single request.
+	 *
+	 * @param pids     the pages to prefetch, in the order they will be needed
+	 * @param strategy the ring of the scan the pages are for, or null
+	 */
+	void prefetch(List<PageId> pids, BufferAccessStrategy strategy) {
+		List<Frame> claimed = new ArrayList<>();
+		for (PageId pid : pids) {
+			Segment seg = segmentFor(pid);
+			if (find(pid) != null)
+				continue;
+			int size = pageSizeOf(pid);
+			recycle(strategy);
+			if (!tryReserveFrame(seg, size))
+				break;
+			seg.lock.lock();
+			try {
+				if (seg.frames.containsKey(pid)) {
+					residentPages.addAndGet(-unitsOf(size));
+					continue;
+				}
+				Frame frame = newFrame(pid, size);
+				frame.latch.writeLock().lock();
+				seg.frames.put(pid, frame);
+				seg.policy.admit(pid);
+				if (strategy != null)
+					strategy.add(pid);
+				claimed.add(frame);
+			} finally {
+				seg.lock.unlock();
+			}
+		}
+
+		int first = 0;
+		while (first < claimed.size()) {
+			int end = first + 1;
+			while (end < claimed.size() && follows(claimed.get(end - 1).pid, claimed.get(end).pid))
+				++end;
+			load(claimed.subList(first, end));
+			first = end;
+		}
+	}
+
+	/**
+	 * @return the resident pages, with the number of times each was
+	 * requested since it was brought in.
+	 */
+	Map<PageId, Integer> accessCounts() {
+		Map<PageId, Integer> counts = new HashMap<>();
+		for (Segment seg : segments) {
+			seg.lock.lock();
+			try {
+				for (Frame frame : seg.frames.values())
+					counts.put(frame.pid, frame.accesses);
+			} finally {
+				seg.lock.unlock();
+			}
+		}
+		return counts;
+	}
 
-		// Get Page
-		if (!pid2page.containsKey(pid)) {
-			if (pid2page.size() >= numPages)
-				evictPage();
+	/**
+	 * Read pages into the pool in the background, e.g. the pages that were
+	 * hot before a restart. The pages are shared round-robin between the
+	 * given number of threads, so the first ones are read first. Like
+	 * read-ahead this takes no locks and is best effort: a thread stops as
+	 * soon as the pool is full rather than evict the pages already loaded.
+	 *
+	 * @param pids    the pages to load, most valuable first
+	 * @param threads the number of concurrent readers
+	 * @return completes once all readers are done
+	 */
+	public CompletableFuture<Void> preload(List<PageId> pids, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("preload needs at least one thread");
+		ExecutorService readers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "BufferPool preload");
+			t.setDaemon(true);
+			return t;
+		});
+		CompletableFuture<?>[] done = new CompletableFuture<?>[threads];
+		for (int i = 0; i < threads; ++i) {
+			int first = i;
+			done[i] = CompletableFuture.runAsync(() -> {
+				for (int j = first; j < pids.size() && residentPages.get() < numPages; j += threads)
+					prefetch(Collections.singletonList(pids.get(j)), null);
+			}, readers);
+		}
+		readers.shutdown();
+		return CompletableFuture.allOf(done);
+	}
 
-			Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-			pid2page.put(pid, page);
+	/**
+	 * Prefetch a single page, see {@link #prefetch(List, BufferAccessStrategy)}.
+	 *
+	 * @return the resident page, or null if it could not be brought in
+	 */
+	Page prefetch(PageId pid, BufferAccessStrategy strategy) {
+		prefetch(Collections.singletonList(pid), strategy);
+		Segment seg = segmentFor(pid);
+		Frame frame;
+		seg.lock.lock();
+		try {
+			frame = seg.frames.get(pid);
+		} finally {
+			seg.lock.unlock();
 		}
+		return frame == null ? null : materialize(frame);
+	}
 
-		return pid2page.get(pid);
+	private static boolean follows(PageId prev, PageId next) {
+		return prev instanceof HeapPageId && next instanceof HeapPageId
+				&& prev.getTableId() == next.getTableId()
+				&& prev.pageNumber() + 1 == next.pageNumber();
+	}
+
+	/**
+	 * Read the pages of latched, registered frames and release the latches.
+	 */
+	private void load(List<Frame> frames) {
+		try {
+			PageId first = frames.get(0).pid;
+			DbFile file = Database.getCatalog().getDatabaseFile(first.getTableId());
+			if (frames.size() > 1 && file instanceof HeapFile && arena == null) {
+				long start = System.nanoTime();
+				List<Page> pages = ((HeapFile) file).readPages(first.pageNumber(), frames.size());
+				stats.read(pages.size(), (long) pages.size() * file.getPageSize(), System.nanoTime() - start);
+				CompressedPageCache tier = secondTier;
+				for (int i = 0; i < pages.size(); ++i) {
+					frames.get(i).page = pages.get(i);
+					if (tier != null)
+						tier.remove(frames.get(i).pid);
+				}
+			} else {
+				for (Frame frame : frames)
+					readInto(frame, file);
+			}
+		} catch (RuntimeException e) {
+			// read-ahead is only a hint.
+		} finally {
+			for (Frame frame : frames) {
+				if (!frame.isLoaded())
+					unregister(segmentFor(frame.pid), frame);
+				frame.latch.writeLock().unlock();
+			}
+		}
 	}
 
 	/**
 	 * ensure the page is in buffer pool. */
 	private void pin2pool(Page page) throws DbException {
 		PageId pid = page.getId();
-		if (!pid2page.containsKey(pid) && pid2page.size() >= numPages)
-			evictPage();
-		pid2page.put(pid, page);
+		Segment seg = segmentFor(pid);
+		Frame frame = lookup(seg, pid, null);
+
+		if (frame == null) {
+			int size = pageSizeOf(pid);
+			reserveFrame(seg, size);
+			seg.lock.lock();
+			try {
+				frame = seg.frames.get(pid);
+				if (frame == null) {
+					frame = newFrame(pid, size);
+					frame.page = page;
+					seg.frames.put(pid, frame);
+					seg.policy.admit(pid);
+					return;
+				}
+			} finally {
+				seg.lock.unlock();
+			}
+			residentPages.addAndGet(-unitsOf(size));
+		}
+
+		frame.latch.writeLock().lock();
+		frame.page = page;
+		frame.latch.writeLock().unlock();
+	}
+
+	/**
+	 * Lock pid for tid as getPage would, but only if no other transaction
+	 * is in the way.
+	 *
+	 * @return whether tid may now get the page without waiting
+	 */
+	public boolean tryLockPage(TransactionId tid, PageId pid, Permissions perm) {
+		if (versions.snapshotOf(tid) != null)
+			return true;
+		VersionStore.Workspace ws = versions.workspaceOf(tid);
+		if (ws != null && !ws.validated)
+			return true;
+		return transactionManager.tryAcquireLock(tid, pid, perm);
 	}
 
 	/**
@@ -119,7 +1628,7 @@ public class BufferPool {
 	 * @param tid the ID of the transaction requesting the unlock
 	 * @param pid the ID of the page to unlock
 	 */
-	public synchronized void releasePage(TransactionId tid, PageId pid) {
+	public void releasePage(TransactionId tid, PageId pid) {
 		// some code goes here
 		// not necessary for lab1|lab2
 		transactionManager.release(tid, pid);
@@ -152,25 +1661,100 @@ public class BufferPool {
 	 * @param tid    the ID of the transaction requesting the unlock
 	 * @param commit a flag indicating whether we should commit or abort
 	 */
-	public synchronized void transactionComplete(TransactionId tid, boolean commit)
+	public void transactionComplete(TransactionId tid, boolean commit)
 			throws IOException {
 		// some code goes here
 		// not necessary for lab1|lab2
 
-		if (commit)
-			flushPages(tid);
-		else { // this tid is aborted.
-			List<TransactionManager.Lock> locks = transactionManager.getLocksFromTid(tid);
-			if (locks == null)
-				return;
+		if (commit) {
+			try {
+				validate(tid);
+			} catch (TransactionAbortedException e) {
+				transactionComplete(tid, false);
+				throw new IOException("transaction " + tid + " failed validation", e);
+			}
+			prepareCommit(tid);
+		} else if (stealNoForce) {
+			// pages written back before the abort are restored from the log.
+			Database.getLogFile().rollback(tid);
+		}
+
+		List<TransactionManager.Lock> locks = transactionManager.getLocksFromTid(tid);
+		if (locks == null) {
+			versions.end(tid);
+			return;
+		}
 
-			for (TransactionManager.Lock lock : locks) {
-				if (lock.type == TransactionManager.LockType.EXCLUSIVE)
-					discardPage(lock.pid);
+		// private copies of pages that were not merged are simply dropped.
+		Map<PageId, Page> written = new HashMap<>();
+		for (PageId pid : writtenPages(tid, locks)) {
+			Frame frame = find(pid);
+			Page page = frame == null ? null : frame.page;
+			written.put(pid, page);
+			if (commit)
+				continue;
+			if (!stealNoForce) {
+				discardPage(pid);
+			} else {
+				// the page on disk may lack committed updates, so restore a
+				// dirty page from its before image. tid may have changed
+				// pages without marking them dirty yet if it was aborted
+				// in the middle of an update.
+				if (page != null && page.isDirty() != null)
+					restorePage(page.getBeforeImage());
+				else
+					discardPage(pid);
 			}
 		}
+		// the committed contents are what later transactions roll back to,
+		// and what snapshots read.
+		if (commit)
+			versions.commit(written);
+		else
+			versions.unstash(written.keySet());
+		// pages committed by an optimistic transaction stay claimed until now.
+		versions.end(tid);
+		Map<PageId, RecordPage> mine = records.remove(tid);
+		if (mine != null) {
+			mine.forEach(this::discharge);
+			unclaim(tid, mine.keySet());
+		}
 
 		transactionManager.release(tid);
+		// tid got pages only under locks, so this drops all its pins.
+		for (TransactionManager.Lock lock : locks)
+			unpin(tid, lock.pid, true);
+	}
+
+	/**
+	 * Make the updates of a committing transaction durable ahead of its
+	 * commit record. NO-STEAL/FORCE writes its dirty pages to disk, while
+	 * STEAL/NO-FORCE only writes them to the log and leaves the pages dirty.
+	 *
+	 * @param tid the committing transaction
+	 */
+	public void prepareCommit(TransactionId tid) throws IOException {
+		if (!stealNoForce) {
+			mergeRecords(tid);
+			flushPages(tid);
+			return;
+		}
+
+		List<TransactionManager.Lock> locks = transactionManager.getLocksFromTid(tid);
+		if (locks == null)
+			return;
+
+		LogFile log = Database.getLogFile();
+		for (TransactionManager.Lock lock : locks) {
+			if (lock.type != TransactionManager.LockType.EXCLUSIVE)
+				continue;
+			Frame frame = find(lock.pid);
+			Page page = frame == null ? null : frame.page;
+			if (page == null || !tid.equals(page.isDirty()) || tid.equals(frame.committedBy))
+				continue;
+			frame.lsn = log.logWrite(tid, page.getBeforeImage(), page);
+			frame.committedBy = tid;
+		}
 	}
 
 	/**
@@ -196,10 +1780,7 @@ public class BufferPool {
 		DbFile file = Database.getCatalog().getDatabaseFile(tableId);
 		ArrayList<Page> dirtyPages = file.insertTuple(tid, t);
 
-		for (Page p : dirtyPages) {
-			pin2pool(p);
-			p.markDirty(true, tid);
-		}
+		dirtied(tid, dirtyPages);
 	}
 
 	/**
@@ -223,9 +1804,28 @@ public class BufferPool {
 		DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
 		ArrayList<Page> dirtyPages = file.deleteTuple(tid, t);
 
+		dirtied(tid, dirtyPages);
+	}
+
+	/**
+	 * Mark the pages an update of tid dirtied, and put them in the pool, or
+	 * in the write set of tid if it is optimistic.
+	 */
+	private void dirtied(TransactionId tid, List<Page> dirtyPages) throws DbException {
+		VersionStore.Workspace ws = versions.workspaceOf(tid);
+		Map<PageId, RecordPage> mine = records.isEmpty() ? null : records.get(tid);
 		for (Page p : dirtyPages) {
+			if (ws != null && !ws.validated) {
+				p.markDirty(true, tid);
+				ws.writes.put(p.getId(), p);
+				continue;
+			}
+			RecordPage r = mine == null ? null : mine.get(p.getId());
+			if (r != null && r.page == p)
+				continue;
 			pin2pool(p);
 			p.markDirty(true, tid);
+			unpinPage(tid, p.getId());
 		}
 	}
 
@@ -234,11 +1834,19 @@ public class BufferPool {
 	 * NB: Be careful using this routine -- it writes dirty data to disk so will
 	 * break simpledb if running in NO STEAL mode.
 	 */
-	public synchronized void flushAllPages() throws IOException {
+	public void flushAllPages() throws IOException {
 		// some code goes here
 		// not necessary for lab1
-		for (PageId pid : pid2page.keySet())
-			flushPage(pid);
+		List<PageId> pids = new ArrayList<>();
+		for (Segment seg : segments) {
+			seg.lock.lock();
+			try {
+				pids.addAll(seg.frames.keySet());
+			} finally {
+				seg.lock.unlock();
+			}
+		}
+		flushPages(pids);
 	}
 
 	/**
@@ -250,10 +1858,28 @@ public class BufferPool {
 	 * Also used by B+ tree files to ensure that deleted pages
 	 * are removed from the cache so they can be reused safely
 	 */
-	public synchronized void discardPage(PageId pid) {
+	public void discardPage(PageId pid) {
 		// some code goes here
 		// not necessary for lab1
-		pid2page.remove(pid);
+		CompressedPageCache tier = secondTier;
+		if (tier != null)
+			tier.remove(pid);
+		Segment seg = segmentFor(pid);
+		Frame frame;
+		seg.lock.lock();
+		try {
+			frame = seg.frames.remove(pid);
+			if (frame != null)
+				seg.policy.remove(pid);
+		} finally {
+			seg.lock.unlock();
+		}
+		if (frame == null)
+			return;
+		if (arena != null)
+			frame.latch.writeLock().lock();
+		retire(frame);
+		residentPages.addAndGet(-frame.units);
 	}
 
 	/**
@@ -261,57 +1887,276 @@ public class BufferPool {
 	 *
 	 * @param pid an ID indicating the page to flush
 	 */
-	private synchronized void flushPage(PageId pid) throws IOException {
+	private void flushPage(PageId pid) throws IOException {
 		// some code goes here
 		// not necessary for lab1
-		// if present in buffer
-		Page page = pid2page.get(pid);
-		TransactionId dirtier = page.isDirty();
-		if (dirtier != null) {
-			Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
-			page.markDirty(false, dirtier);
+		flushPages(Collections.singleton(pid));
+	}
+
+	/**
+	 * A dirty page about to be written back, with the transaction that
+	 * dirtied it when the flush started.
+	 */
+	private static class DirtyPage {
+		final Frame frame;
+		final Page page;
+		final TransactionId dirtier;
+
+		DirtyPage(Frame frame, Page page, TransactionId dirtier) {
+			this.frame = frame;
+			this.page = page;
+			this.dirtier = dirtier;
+		}
+	}
+
+	private static final Comparator<DirtyPage> DISK_ORDER = Comparator
+			.<DirtyPage>comparingInt(d -> d.frame.pid.getTableId())
+			.thenComparingInt(d -> d.frame.pid.pageNumber());
+
+	private static final Comparator<PageId> PAGE_ORDER = Comparator
+			.comparingInt(PageId::getTableId)
+			.thenComparingInt(PageId::pageNumber);
+
+	/**
+	 * Write back the dirty pages among pids. The pages are sorted by file
+	 * and page number, and each file gets them as one batch, which it writes
+	 * with as few requests as it can and forces once.
+	 *
+	 * @return the number of pages written
+	 */
+	private int flushPages(Collection<PageId> pids) throws IOException {
+		List<DirtyPage> dirty = new ArrayList<>();
+		for (PageId pid : new HashSet<>(pids)) {
+			Frame frame = find(pid);
+			Page page = frame == null ? null : frame.page;
+			TransactionId dirtier = page == null ? null : page.isDirty();
+			if (dirtier != null)
+				dirty.add(new DirtyPage(frame, page, dirtier));
+		}
+		if (dirty.isEmpty())
+			return 0;
+
+		if (stealNoForce) {
+			// write-ahead: the log describes the pages before they reach
+			// disk. Logging happens outside the latches, since checkpoints
+			// hold the log while they flush.
+			LogFile log = Database.getLogFile();
+			long lsn = 0;
+			for (DirtyPage d : dirty) {
+				if (!d.dirtier.equals(d.frame.committedBy))
+					d.frame.lsn = log.logWrite(d.dirtier, d.page.getBeforeImage(), d.page);
+				lsn = Math.max(lsn, d.frame.lsn);
+			}
+			log.forceTo(lsn);
+		}
+
+		dirty.sort(DISK_ORDER);
+		int written = 0;
+		int first = 0;
+		while (first < dirty.size()) {
+			int tableId = dirty.get(first).frame.pid.getTableId();
+			int end = first + 1;
+			while (end < dirty.size() && dirty.get(end).frame.pid.getTableId() == tableId)
+				++end;
+			written += writeBack(Database.getCatalog().getDatabaseFile(tableId), dirty.subList(first, end));
+			first = end;
+		}
+		return written;
+	}
+
+	/**
+	 * Write dirty pages of one file, in disk order. The latches of all the
+	 * frames are held across the write, taken in disk order so that
+	 * concurrent flushes cannot deadlock.
+	 */
+	private int writeBack(DbFile file, List<DirtyPage> dirty) throws IOException {
+		List<DirtyPage> latched = new ArrayList<>();
+		try {
+			List<DirtyPage> current = new ArrayList<>();
+			List<Page> pages = new ArrayList<>();
+			for (DirtyPage d : dirty) {
+				d.frame.latch.writeLock().lock();
+				latched.add(d);
+				// the page may have been rolled back or replaced meanwhile.
+				if (d.frame.page == d.page && find(d.frame.pid) == d.frame) {
+					current.add(d);
+					pages.add(d.page);
+					versions.stash(d.page);
+				}
+			}
+			if (pages.isEmpty())
+				return 0;
+
+			long bytes = 0;
+			for (Page page : pages)
+				bytes += bytesOf(page.getId());
+			long start = System.nanoTime();
+			file.writePages(pages);
+			stats.written(pages.size(), bytes, System.nanoTime() - start);
+
+			for (DirtyPage d : current) {
+				stats.flushed();
+				saveImage(d.frame, d.page);
+				if (d.dirtier.equals(d.page.isDirty()))
+					d.page.markDirty(false, d.dirtier);
+			}
+			return current.size();
+		} finally {
+			for (DirtyPage d : latched)
+				d.frame.latch.writeLock().unlock();
+		}
+	}
+
+	private Frame find(PageId pid) {
+		Segment seg = segmentFor(pid);
+		seg.lock.lock();
+		try {
+			return seg.frames.get(pid);
+		} finally {
+			seg.lock.unlock();
+		}
+	}
+
+	/**
+	 * Write the before image of a page rolled back by an aborting
+	 * transaction, and drop the resident copy. The frame latch, or the
+	 * segment lock if the page is not resident, is held across the write so
+	 * that nobody writes or reads the aborted contents in between.
+	 *
+	 * @param before the page as it was before the aborting transaction
+	 */
+	void restorePage(Page before) throws IOException {
+		PageId pid = before.getId();
+		DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+		Segment seg = segmentFor(pid);
+		Frame frame;
+		seg.lock.lock();
+		try {
+			frame = seg.frames.get(pid);
+			if (frame == null) {
+				write(file, before);
+				return;
+			}
+		} finally {
+			seg.lock.unlock();
+		}
+
+		frame.latch.writeLock().lock();
+		try {
+			write(file, before);
+			unregister(seg, frame);
+		} finally {
+			frame.latch.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Write back dirty pages of committed transactions that nobody is
+	 * updating, for the background cleaner. Pages of running transactions
+	 * are left to eviction.
+	 *
+	 * @param max the most pages to write
+	 * @return the number of pages written
+	 */
+	int cleanPages(int max) throws IOException {
+		List<PageId> committed = new ArrayList<>();
+		for (Segment seg : segments) {
+			seg.lock.lock();
+			try {
+				for (Frame frame : seg.frames.values()) {
+					if (committed.size() >= max)
+						break;
+					Page page = frame.page;
+					TransactionId dirtier = page == null ? null : page.isDirty();
+					if (dirtier != null && dirtier.equals(frame.committedBy))
+						committed.add(frame.pid);
+				}
+			} finally {
+				seg.lock.unlock();
+			}
+		}
+
+		// the shared locks keep writers away while the pages are written.
+		List<PageId> locked = new ArrayList<>();
+		for (PageId pid : committed)
+			if (transactionManager.tryAcquireSharedLock(cleanerTid, pid))
+				locked.add(pid);
+		try {
+			return flushPages(locked);
+		} finally {
+			transactionManager.release(cleanerTid);
 		}
 	}
 
 	/**
 	 * Write all pages of the specified transaction to disk.
 	 */
-	public synchronized void flushPages(TransactionId tid) throws IOException {
+	public void flushPages(TransactionId tid) throws IOException {
 		// some code goes here
 		// not necessary for lab1|lab2
 		List<TransactionManager.Lock> locks = transactionManager.getLocksFromTid(tid);
 		if (locks == null)
 			return;
 
+		flushPages(writtenPages(tid, locks));
+	}
+
+	/**
+	 * @return the pages tid has written: those it locked exclusively, and
+	 * those it merged records into.
+	 */
+	private List<PageId> writtenPages(TransactionId tid, List<TransactionManager.Lock> locks) {
+		List<PageId> pids = new ArrayList<>();
 		for (TransactionManager.Lock l : locks)
-			if (l.type == TransactionManager.LockType.EXCLUSIVE && pid2page.containsKey(l.pid))
-				flushPage(l.pid);
+			if (l.type == TransactionManager.LockType.EXCLUSIVE)
+				pids.add(l.pid);
+		Map<PageId, RecordPage> mine = records.get(tid);
+		if (mine != null)
+			for (Map.Entry<PageId, RecordPage> e : mine.entrySet())
+				if (e.getValue().merged)
+					pids.add(e.getKey());
+		return pids;
 	}
 
 	/**
 	 * Discards a page from the buffer pool.
 	 * Flushes the page to disk to ensure dirty pages are updated on disk.
+	 * <p>
+	 * Pinned pages are never evicted: a transaction that needs more pages
+	 * than the pool holds must unpin the ones it is done with.
 	 */
-	private synchronized void evictPage() throws DbException {
+	private void evictPage(Segment preferred) throws DbException {
 		// some code goes here
 		// not necessary for lab1
-		List<PageId> cleanPids = new LinkedList<>();
-		for (PageId ePid : pid2page.keySet())
-			if (pid2page.get(ePid).isDirty() == null)
-				cleanPids.add(ePid);
+		if (evictCleanPage(preferred))
+			return;
+		if (stealNoForce && evictDirtyPage(preferred))
+			return;
 
-		PageId evictPid = null;
-		if (!cleanPids.isEmpty())
-			evictPid = cleanPids.get(new Random().nextInt(cleanPids.size()));
+		if (!stealNoForce)
+			throw new DbException("No unpinned page is clean, can not evict.");
+		throw new DbException("All pages are pinned, can not evict.");
+	}
 
-		if (evictPid == null)
-			throw new DbException("No page is clean, can not evict.");
-		try {
-			flushPage(evictPid);
-			discardPage(evictPid);
-		} catch (IOException e) {
-			throw new DbException(e.getMessage());
+	/**
+	 * STEAL: write back a dirty page and evict it, and let the cleaner
+	 * catch up.
+	 */
+	private boolean evictDirtyPage(Segment preferred) throws DbException {
+		wakeCleaner();
+		for (int i = 0; i < segments.length; ++i) {
+			Segment seg = segments[(preferred.index + i) % segments.length];
+			Frame victim = seg.dirtyVictim();
+			if (victim == null)
+				continue;
+			try {
+				flushPage(victim.pid);
+			} catch (IOException e) {
+				throw new DbException("could not write back page " + victim.pid + ": " + e.getMessage());
+			}
+			if (seg.evictOne())
+				return true;
 		}
+		return false;
 	}
 }
-
@@ -0,0 +1,251 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * BufferPoolStats counts what a BufferPool does: page requests served from
+ * the pool (hits) or from disk (misses) per table, evictions, write-backs of
+ * dirty pages (flushes), misses served by the compressed second tier
+ * instead of the disk, escalations of page locks to table locks, and the
+ * pages, bytes and latency of the reads and writes the pool issues to its
+ * DbFiles. Latencies are recorded once per
+ * request, and a read-ahead request may cover several pages.
+ * <p>
+ * The counters of the Database's pool are published over JMX and printed
+ * by the "stats" command of the Parser.
+ */
+public class BufferPoolStats implements BufferPoolStatsMBean {
+	public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+	private static class TableCounters {
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+	}
+
+	private final ConcurrentHashMap<Integer, TableCounters> tables = new ConcurrentHashMap<>();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder secondTierHits = new LongAdder();
+	private final LongAdder lockEscalations = new LongAdder();
+	private final LongAdder pagesRead = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder pagesWritten = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LatencyHistogram readLatency = new LatencyHistogram();
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+	/**
+	 * Register these counters as the MBean {@value #OBJECT_NAME}, in place
+	 * of the ones of a previous pool.
+	 */
+	void publish() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			synchronized (BufferPoolStats.class) {
+				if (server.isRegistered(name))
+					server.unregisterMBean(name);
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			// the pool works without being visible.
+			e.printStackTrace();
+		}
+	}
+
+	private TableCounters table(int tableId) {
+		return tables.computeIfAbsent(tableId, id -> new TableCounters());
+	}
+
+	void hit(PageId pid) {
+		table(pid.getTableId()).hits.increment();
+	}
+
+	void miss(PageId pid) {
+		table(pid.getTableId()).misses.increment();
+	}
+
+	void evicted() {
+		evictions.increment();
+	}
+
+	void flushed() {
+		flushes.increment();
+	}
+
+	void secondTierHit() {
+		secondTierHits.increment();
+	}
+
+	void escalated() {
+		lockEscalations.increment();
+	}
+
+	void read(int pages, long bytes, long nanos) {
+		pagesRead.add(pages);
+		bytesRead.add(bytes);
+		readLatency.record(nanos);
+	}
+
+	void written(int pages, long bytes, long nanos) {
+		pagesWritten.add(pages);
+		bytesWritten.add(bytes);
+		writeLatency.record(nanos);
+	}
+
+	@Override
+	public long getHits() {
+		long sum = 0;
+		for (TableCounters t : tables.values())
+			sum += t.hits.sum();
+		return sum;
+	}
+
+	@Override
+	public long getMisses() {
+		long sum = 0;
+		for (TableCounters t : tables.values())
+			sum += t.misses.sum();
+		return sum;
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hits = getHits();
+		long requests = hits + getMisses();
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	@Override
+	public long getSecondTierHits() {
+		return secondTierHits.sum();
+	}
+
+	@Override
+	public long getLockEscalations() {
+		return lockEscalations.sum();
+	}
+
+	@Override
+	public long getPagesRead() {
+		return pagesRead.sum();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public double getMeanReadMicros() {
+		return readLatency.getMeanMicros();
+	}
+
+	@Override
+	public long getReadMicrosP99() {
+		return readLatency.getQuantileMicros(0.99);
+	}
+
+	@Override
+	public long getPagesWritten() {
+		return pagesWritten.sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public double getMeanWriteMicros() {
+		return writeLatency.getMeanMicros();
+	}
+
+	@Override
+	public long getWriteMicrosP99() {
+		return writeLatency.getQuantileMicros(0.99);
+	}
+
+	private TableCounters table(String name) {
+		try {
+			return tables.get(Database.getCatalog().getTableId(name));
+		} catch (NoSuchElementException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public long getTableHits(String name) {
+		TableCounters t = table(name);
+		return t == null ? 0 : t.hits.sum();
+	}
+
+	@Override
+	public long getTableMisses(String name) {
+		TableCounters t = table(name);
+		return t == null ? 0 : t.misses.sum();
+	}
+
+	@Override
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("requests: %d hits, %d misses, hit ratio %.1f%%\n",
+				getHits(), getMisses(), 100 * getHitRatio()));
+		sb.append(String.format("evictions: %d, flushes: %d, second tier hits: %d\n",
+				getEvictions(), getFlushes(), getSecondTierHits()));
+		sb.append(String.format("lock escalations: %d\n", getLockEscalations()));
+		sb.append(String.format("reads: %d pages, %d bytes, mean %.1f us, p99 < %d us\n",
+				getPagesRead(), getBytesRead(), getMeanReadMicros(), getReadMicrosP99()));
+		sb.append(String.format("writes: %d pages, %d bytes, mean %.1f us, p99 < %d us\n",
+				getPagesWritten(), getBytesWritten(), getMeanWriteMicros(), getWriteMicrosP99()));
+
+		Map<String, TableCounters> byName = new TreeMap<>();
+		for (Map.Entry<Integer, TableCounters> e : tables.entrySet()) {
+			String name;
+			try {
+				name = Database.getCatalog().getTableName(e.getKey());
+			} catch (NoSuchElementException ex) {
+				name = "#" + e.getKey();
+			}
+			byName.put(name, e.getValue());
+		}
+		for (Map.Entry<String, TableCounters> e : byName.entrySet())
+			sb.append(String.format("  %s: %d hits, %d misses\n",
+					e.getKey(), e.getValue().hits.sum(), e.getValue().misses.sum()));
+		return sb.toString();
+	}
+
+	@Override
+	public void reset() {
+		tables.clear();
+		evictions.reset();
+		flushes.reset();
+		secondTierHits.reset();
+		lockEscalations.reset();
+		pagesRead.reset();
+		bytesRead.reset();
+		pagesWritten.reset();
+		bytesWritten.reset();
+		readLatency.reset();
+		writeLatency.reset();
+	}
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+/**
+ * Management interface of {@link BufferPoolStats}, published over JMX as
+ * {@value BufferPoolStats#OBJECT_NAME}. Latencies are in microseconds.
+ */
+public interface BufferPoolStatsMBean {
+	long getHits();
+
+	long getMisses();
+
+	double getHitRatio();
+
+	long getEvictions();
+
+	long getFlushes();
+
+	long getSecondTierHits();
+
+	long getLockEscalations();
+
+	long getPagesRead();
+
+	long getBytesRead();
+
+	double getMeanReadMicros();
+
+	long getReadMicrosP99();
+
+	long getPagesWritten();
+
+	long getBytesWritten();
+
+	double getMeanWriteMicros();
+
+	long getWriteMicrosP99();
+
+	long getTableHits(String table);
+
+	long getTableMisses(String table);
+
+	/**
+	 * @return all counters in human readable form.
+	 */
+	String report();
+
+	void reset();
+}
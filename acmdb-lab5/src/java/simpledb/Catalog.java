@@ -186,7 +186,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [pagesize n]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -214,10 +214,19 @@ public class Catalog {
                         }
                     }
                 }
+                // an optional "pagesize n" after the fields sets the page size
+                int pageSize = BufferPool.getPageSize();
+                String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+                if (options.length == 2 && options[0].equalsIgnoreCase("pagesize")) {
+                    pageSize = Integer.parseInt(options[1]);
+                } else if (!options[0].isEmpty()) {
+                    System.out.println("Unknown table option " + options[0]);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
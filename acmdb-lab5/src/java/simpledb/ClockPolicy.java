@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit on a circular list
+ * with a reference bit; a hit only sets the bit, and the clock hand clears
+ * bits as it sweeps until it finds an unreferenced, evictable page.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+	private static class Node {
+		final PageId pid;
+		boolean referenced;
+		Node prev, next;
+
+		Node(PageId pid) {
+			this.pid = pid;
+		}
+	}
+
+	private final HashMap<PageId, Node> nodes = new HashMap<>();
+	private Node hand = null;
+
+	@Override
+	public void admit(PageId pid) {
+		if (nodes.containsKey(pid)) {
+			access(pid);
+			return;
+		}
+		Node node = new Node(pid);
+		nodes.put(pid, node);
+
+		// insert right behind the hand, so a new page gets a full sweep.
+		if (hand == null) {
+			node.prev = node;
+			node.next = node;
+			hand = node;
+		} else {
+			node.prev = hand.prev;
+			node.next = hand;
+			hand.prev.next = node;
+			hand.prev = node;
+		}
+	}
+
+	@Override
+	public void access(PageId pid) {
+		Node node = nodes.get(pid);
+		if (node != null)
+			node.referenced = true;
+	}
+
+	@Override
+	public void remove(PageId pid) {
+		Node node = nodes.remove(pid);
+		if (node == null)
+			return;
+		if (node.next == node) {
+			hand = null;
+		} else {
+			node.prev.next = node.next;
+			node.next.prev = node.prev;
+			if (hand == node)
+				hand = node.next;
+		}
+	}
+
+	@Override
+	public PageId victim(Predicate<PageId> evictable) {
+		// two full sweeps are enough: the first clears every reference bit.
+		int steps = 2 * nodes.size();
+		for (int i = 0; i < steps; ++i) {
+			Node node = hand;
+			hand = hand.next;
+			if (node.referenced) {
+				node.referenced = false;
+			} else if (evictable.test(node.pid)) {
+				return node.pid;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int size() {
+		return nodes.size();
+	}
+}
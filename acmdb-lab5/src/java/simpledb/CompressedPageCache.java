@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageCache is the optional second tier of a BufferPool: it keeps
+ * deflated images of clean pages the pool has evicted, within a budget of
+ * bytes of its own, so that faulting such a page in again costs an inflate
+ * instead of a disk read. The cache is exclusive: an image is dropped as
+ * soon as its page is read back into the pool, and the least recently
+ * stored images go first when the budget is exceeded.
+ * <p>
+ * The pool keeps the images in step with the disk: it stores only images
+ * of clean pages and removes the image of a page it writes or discards.
+ */
+class CompressedPageCache {
+	private static class Image {
+		final byte[] data;
+		final int length;
+
+		Image(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	private final long budget;
+	private long bytes = 0;
+	private final LinkedHashMap<PageId, Image> images = new LinkedHashMap<>();
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final Inflater inflater = new Inflater();
+	private byte[] buffer = new byte[0];
+
+	/**
+	 * @param budget the number of bytes the compressed images may take.
+	 */
+	CompressedPageCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Remember the image of a clean page leaving the pool.
+	 */
+	synchronized void put(PageId pid, byte[] data) {
+		remove(pid);
+		if (buffer.length < data.length + 64)
+			buffer = new byte[data.length + 64];
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		int n = deflater.deflate(buffer);
+		if (!deflater.finished() || n > budget)
+			return;
+
+		byte[] compressed = new byte[n];
+		System.arraycopy(buffer, 0, compressed, 0, n);
+		images.put(pid, new Image(compressed, data.length));
+		bytes += n;
+		Iterator<Image> it = images.values().iterator();
+		while (bytes > budget) {
+			bytes -= it.next().data.length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Remove the image of pid and return it inflated.
+	 *
+	 * @return the page image, or null if the cache does not hold pid
+	 */
+	synchronized byte[] take(PageId pid) {
+		Image image = images.remove(pid);
+		if (image == null)
+			return null;
+		bytes -= image.data.length;
+		byte[] data = new byte[image.length];
+		inflater.reset();
+		inflater.setInput(image.data);
+		try {
+			if (inflater.inflate(data) != image.length)
+				return null;
+		} catch (DataFormatException e) {
+			return null;
+		}
+		return data;
+	}
+
+	/**
+	 * Forget the image of pid, e.g. because the page on disk changes.
+	 */
+	synchronized void remove(PageId pid) {
+		Image image = images.remove(pid);
+		if (image != null)
+			bytes -= image.data.length;
+	}
+
+	/**
+	 * @return the number of pages in the cache.
+	 */
+	synchronized int size() {
+		return images.size();
+	}
+
+	/**
+	 * @return the number of bytes the compressed images take.
+	 */
+	synchronized long bytes() {
+		return bytes;
+	}
+}
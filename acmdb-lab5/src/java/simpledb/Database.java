@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -19,11 +21,13 @@ public class Database {
     private final BufferPool _bufferpool;
 
     private final static String LOGFILENAME = "log";
+    private final static int PRELOAD_THREADS = 4;
     private final LogFile _logfile;
 
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool.getStats().publish();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -50,16 +54,48 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /**
+     * Start loading the pages that were resident in the buffer pool at the
+     * last checkpoint, most frequently used first, in background threads.
+     * Should be called once the catalog is loaded.
+     *
+     * @return completes once the pages are loaded
+     */
+    public static CompletableFuture<Void> warmUp() throws IOException {
+        List<PageId> pids = HotPageSet.load(getLogFile().pageSetFile());
+        return getBufferPool().preload(pids, PRELOAD_THREADS);
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, BufferPool.DEFAULT_POLICY);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that evicts pages with the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy) {
+        return resetBufferPool(pages, policy, BufferPool.DEFAULT_OFF_HEAP);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy, keeping pages off-heap if offHeap
+     * is set, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy, boolean offHeap) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            _instance.get()._bufferpool.retire();
+            BufferPool bp = new BufferPool(pages, policy, offHeap);
+            bufferPoolF.set(_instance.get(), bp);
+            bp.getStats().publish();
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +111,7 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        _instance.getAndSet(new Database())._bufferpool.retire();
     }
 
 }
@@ -3,6 +3,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -19,6 +20,28 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read the on-disk image of the specified page into buf, for buffer
+     * pools that keep page images rather than Page objects. On return the
+     * position of buf is the length of the image.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    default void readPageImage(PageId id, ByteBuffer buf) {
+        buf.put(readPage(id).getPageData());
+    }
+
+    /**
+     * Build the page with the given id from its on-disk image, as
+     * {@link #readPage} does after reading it.
+     *
+     * @param id the id of the page
+     * @param data the image of the page, as read by {@link #readPageImage}
+     */
+    default Page decodePage(PageId id, byte[] data) {
+        throw new UnsupportedOperationException("cannot decode pages of " + getClass().getName());
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +51,19 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push a batch of pages of this file to disk, and force them to stable
+     * storage if the file can. Files that can write several pages with one
+     * request should do so for pages that are adjacent on disk.
+     *
+     * @param pages the pages to write, sorted by page number
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -68,6 +104,19 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that
+     * brings pages into the BufferPool through the ring of strategy, for bulk
+     * reads that should not displace the pages of other queries. Files that
+     * do not support rings use the whole pool.
+     *
+     * @param strategy the ring to read through, or null for the whole pool
+     * @see BufferAccessStrategy#bulkRead(DbFile)
+     */
+    default DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -88,6 +137,14 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this file. Files created
+     * without a page size use {@link BufferPool#getPageSize()}.
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
     
     public int numPages();
 }
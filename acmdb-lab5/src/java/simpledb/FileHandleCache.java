@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * FileHandleCache keeps the FileChannels of the heap and B+ tree files open
+ * between page reads and writes, so that a page costs one positional system
+ * call instead of an open, a seek, a read and a close. Channels are shared
+ * by every thread using a file; as all I/O goes through positional reads
+ * and writes, threads never contend for a file position and need no lock to
+ * read different pages of one table at the same time.
+ * <p>
+ * At most maxOpen channels stay open; the least recently used channel
+ * nobody is using is closed when another file is opened. A channel in use
+ * is closed only once its last user is done with it. A thread interrupted
+ * during I/O closes the channel for everybody; the other threads reopen it.
+ */
+class FileHandleCache {
+	/**
+	 * The number of files kept open, overridable with
+	 * -Dsimpledb.MaxOpenFiles=n.
+	 */
+	static final int DEFAULT_MAX_OPEN = Integer.getInteger("simpledb.MaxOpenFiles", 64);
+
+	private static final FileHandleCache shared = new FileHandleCache(DEFAULT_MAX_OPEN);
+
+	/**
+	 * Something to do with the channel of a file.
+	 */
+	interface ChannelOp<T> {
+		T apply(FileChannel channel) throws IOException;
+	}
+
+	private static class Handle {
+		final FileChannel channel;
+		/**
+		 * the number of operations using the channel, guarded by the cache.
+		 */
+		int users = 0;
+		/**
+		 * set once the handle has left the cache; the last user closes it.
+		 */
+		boolean retired = false;
+
+		Handle(FileChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	private final int maxOpen;
+	/**
+	 * the open handles, least recently used first.
+	 */
+	private final LinkedHashMap<File, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+	private int opens = 0;
+
+	FileHandleCache(int maxOpen) {
+		this.maxOpen = Math.max(1, maxOpen);
+	}
+
+	/**
+	 * @return the cache shared by the files of the database.
+	 */
+	static FileHandleCache shared() {
+		return shared;
+	}
+
+	/**
+	 * Run op with the channel of f, opening f (and creating it if needed)
+	 * unless it is open already. The channel must not be closed by op, nor
+	 * its position used. op is run again on a reopened channel if another
+	 * thread closed it, so it must be safe to repeat.
+	 */
+	<T> T with(File f, ChannelOp<T> op) throws IOException {
+		File key = f.getAbsoluteFile();
+		for (int attempt = 0; ; ++attempt) {
+			Handle handle = acquire(key);
+			try {
+				return op.apply(handle.channel);
+			} catch (ClosedChannelException e) {
+				drop(key, handle);
+				if (e instanceof ClosedByInterruptException || attempt > 0)
+					throw e;
+			} finally {
+				release(handle);
+			}
+		}
+	}
+
+	private synchronized Handle acquire(File f) throws IOException {
+		Handle handle = handles.get(f);
+		if (handle == null) {
+			handle = new Handle(FileChannel.open(f.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+			++opens;
+			handles.put(f, handle);
+			Iterator<Handle> it = handles.values().iterator();
+			while (handles.size() > maxOpen && it.hasNext()) {
+				Handle victim = it.next();
+				if (victim != handle && victim.users == 0) {
+					it.remove();
+					victim.channel.close();
+				}
+			}
+		}
+		++handle.users;
+		return handle;
+	}
+
+	private synchronized void release(Handle handle) throws IOException {
+		if (--handle.users == 0 && handle.retired)
+			handle.channel.close();
+	}
+
+	private synchronized void drop(File f, Handle handle) {
+		if (handles.get(f) == handle)
+			handles.remove(f);
+		handle.retired = true;
+	}
+
+	/**
+	 * Close the channel of f, e.g. because the file was replaced by another
+	 * one of the same name. Operations under way finish first.
+	 */
+	synchronized void forget(File f) throws IOException {
+		Handle handle = handles.remove(f.getAbsoluteFile());
+		if (handle == null)
+			return;
+		handle.retired = true;
+		if (handle.users == 0)
+			handle.channel.close();
+	}
+
+	/**
+	 * Read the bytes of f from offset into dst, as many as dst has room for
+	 * or the file holds.
+	 *
+	 * @return the number of bytes read, less than requested only at the end
+	 * of the file
+	 */
+	int read(File f, long offset, ByteBuffer dst) throws IOException {
+		int start = dst.position();
+		return with(f, channel -> {
+			while (dst.hasRemaining()) {
+				if (channel.read(dst, offset + dst.position() - start) < 0)
+					break;
+			}
+			return dst.position() - start;
+		});
+	}
+
+	/**
+	 * Write all of src to f at offset.
+	 */
+	void write(File f, long offset, ByteBuffer src) throws IOException {
+		int start = src.position();
+		with(f, channel -> {
+			while (src.hasRemaining())
+				channel.write(src, offset + src.position() - start);
+			return null;
+		});
+	}
+
+	/**
+	 * @return the current length of f.
+	 */
+	long size(File f) throws IOException {
+		return with(f, FileChannel::size);
+	}
+
+	/**
+	 * @return the number of files currently open.
+	 */
+	synchronized int openFiles() {
+		return handles.size();
+	}
+
+	/**
+	 * @return the number of times a file was opened by the cache.
+	 */
+	synchronized int opens() {
+		return opens;
+	}
+}
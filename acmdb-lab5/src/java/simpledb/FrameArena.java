@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FrameArena is the memory of an off-heap BufferPool: page-sized slots
+ * carved out of direct ByteBuffers, allocated when the pool is created and
+ * added to when it grows. Page images kept in the arena live outside the Java heap,
+ * so a large pool adds neither to the heap nor to the work of the garbage
+ * collector.
+ * <p>
+ * Slots are handed out and taken back by the pool; the contents of a slot
+ * are protected by the latch of the frame it belongs to. Memory is never
+ * given back: the slots a shrinking pool no longer uses stay free until it
+ * grows again.
+ */
+class FrameArena {
+	/**
+	 * Largest direct buffer the arena allocates; a ByteBuffer is indexed
+	 * by int, so bigger arenas are split into chunks.
+	 */
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+	private final int slotSize;
+	private final int slotsPerChunk;
+	/**
+	 * Slot n lives in chunk n / slotsPerChunk; only the last chunk added by
+	 * a call to grow may be shorter than slotsPerChunk, so after growing
+	 * slot numbers are no longer dense.
+	 */
+	private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+	private int numSlots;
+
+	/**
+	 * Stack of free slot numbers.
+	 */
+	private int[] free = new int[0];
+	private int numFree;
+
+	FrameArena(int numSlots, int slotSize) {
+		this.slotSize = slotSize;
+		slotsPerChunk = Math.max(1, MAX_CHUNK_BYTES / slotSize);
+		grow(numSlots);
+	}
+
+	/**
+	 * @return the number of slots in the arena.
+	 */
+	synchronized int capacity() {
+		return numSlots;
+	}
+
+	/**
+	 * Add slots until the arena has at least numSlots of them.
+	 */
+	synchronized void grow(int numSlots) {
+		int added = numSlots - this.numSlots;
+		if (added <= 0)
+			return;
+		ByteBuffer[] c = Arrays.copyOf(chunks, chunks.length + (added + slotsPerChunk - 1) / slotsPerChunk);
+		free = Arrays.copyOf(free, numSlots);
+		for (int i = chunks.length; i < c.length; ++i) {
+			int slots = Math.min(slotsPerChunk, added);
+			c[i] = ByteBuffer.allocateDirect(slots * slotSize);
+			for (int j = slots - 1; j >= 0; --j)
+				free[numFree++] = i * slotsPerChunk + j;
+			added -= slots;
+		}
+		chunks = c;
+		this.numSlots = numSlots;
+	}
+
+	/**
+	 * @return the number of a free slot. The arena grows by half if all
+	 * slots are taken, as the arenas for files with unusual page sizes do.
+	 */
+	synchronized int allocate() {
+		if (numFree == 0)
+			grow(numSlots + Math.max(1, numSlots / 2));
+		return free[--numFree];
+	}
+
+	synchronized void release(int slot) {
+		free[numFree++] = slot;
+	}
+
+	/**
+	 * @return a buffer over the given slot, positioned at its start.
+	 */
+	ByteBuffer slot(int slot) {
+		ByteBuffer b = chunks[slot / slotsPerChunk].duplicate();
+		int offset = (slot % slotsPerChunk) * slotSize;
+		b.limit(offset + slotSize);
+		b.position(offset);
+		return b.slice();
+	}
+}
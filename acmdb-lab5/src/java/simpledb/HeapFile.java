@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -16,7 +17,20 @@ import java.util.*;
 public class HeapFile implements DbFile {
 	private File file;
 	private TupleDesc tupleDesc;
-	private RandomAccessFile raf;
+	private final int pageSize;
+	/**
+	 * the open file, shared with every other thread using the table.
+	 */
+	private final FileHandleCache files = FileHandleCache.shared();
+	/**
+	 * the read path in memory-mapped mode, null otherwise.
+	 */
+	private volatile MappedFile mapped;
+	/**
+	 * no page before this one has a free slot for inserts under record
+	 * locks; only a hint, moved up past full pages and back down by deletes.
+	 */
+	private volatile int freeSlotHint = 0;
 	
 	/**
 	 * Constructs a heap file backed by the specified file.
@@ -25,15 +39,38 @@ public class HeapFile implements DbFile {
 	 *          file.
 	 */
 	public HeapFile(File f, TupleDesc td) {
+		this(f, td, BufferPool.getPageSize());
+	}
+
+	/**
+	 * Constructs a heap file backed by the specified file, with pages of
+	 * pageSize bytes.
+	 *
+	 * @param f        the file that stores the on-disk backing store for this
+	 *                 heap file.
+	 * @param pageSize the size of the pages of the file.
+	 */
+	public HeapFile(File f, TupleDesc td, int pageSize) {
 		// some code goes here
 		this.file = f;
 		this.tupleDesc = td;
+		this.pageSize = pageSize;
 		try {
-			raf = new RandomAccessFile(f, "rw");
-			assert raf.length() % BufferPool.getPageSize() == 0;
+			// the file may have been replaced since it was last opened.
+			files.forget(f);
+			assert files.size(f) % pageSize == 0;
 		} catch (IOException e) {
 			throw new RuntimeException();
 		}
+		setMappedReads(MappedFile.DEFAULT_MAPPED_READS);
+	}
+
+	/**
+	 * Read pages through a memory mapping of the file instead of the file
+	 * handle, saving a system call per page. Writes are not affected.
+	 */
+	public void setMappedReads(boolean enable) {
+		mapped = enable ? new MappedFile(file) : null;
 	}
 	
 	/**
@@ -69,6 +106,12 @@ public class HeapFile implements DbFile {
 		// some code goes here
 		return tupleDesc;
 	}
+
+	// see DbFile.java for javadocs
+	@Override
+	public int getPageSize() {
+		return pageSize;
+	}
 	
 	// see DbFile.java for javadocs
 	public Page readPage(PageId pid) {
@@ -77,29 +120,103 @@ public class HeapFile implements DbFile {
 		// assert this because this is HeapFile, for sanity check
 		assert pid instanceof HeapPageId;
 		int pageNo = pid.pageNumber();
-		int pageSize = BufferPool.getPageSize();
 		
 		// read from pageNo * pageSize -- (pageNo + 1) * pageSize
 		// pageNo starts from 0
 		byte[] pageData = new byte[pageSize];
 		try {
-			raf.seek(pageNo * pageSize);
-			raf.read(pageData);
-			return new HeapPage((HeapPageId) pid, pageData);
+			MappedFile m = mapped;
+			if (m != null) {
+				// a page past the end of the file reads as empty.
+				m.read((long) pageNo * pageSize, ByteBuffer.wrap(pageData));
+				return decodePage(pid, pageData);
+			}
+			files.read(file, (long) pageNo * pageSize, ByteBuffer.wrap(pageData));
+			return decodePage(pid, pageData);
 		} catch (IOException e) {
 			throw new RuntimeException("HeapFile readPage IO exception");
 		}
 	}
+
+	// see DbFile.java for javadocs
+	public void readPageImage(PageId pid, ByteBuffer buf) {
+		long offset = (long) pid.pageNumber() * pageSize;
+		int start = buf.position();
+		int end = start + pageSize;
+		try {
+			MappedFile m = mapped;
+			if (m != null) {
+				ByteBuffer dst = buf.duplicate();
+				dst.limit(end);
+				buf.position(start + m.read(offset, dst));
+			} else {
+				ByteBuffer dst = buf.duplicate();
+				dst.limit(end);
+				buf.position(start + files.read(file, offset, dst));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("HeapFile readPageImage IO exception", e);
+		}
+		// like readPage, a page past the end of the file reads as empty.
+		while (buf.position() < end)
+			buf.put((byte) 0);
+	}
+
+	// see DbFile.java for javadocs
+	public Page decodePage(PageId pid, byte[] data) {
+		try {
+			return new HeapPage((HeapPageId) pid, data);
+		} catch (IOException e) {
+			throw new RuntimeException("HeapFile decodePage IO exception", e);
+		}
+	}
+	
+	/**
+	 * Read a run of consecutive pages with a single request. Used by
+	 * read-ahead; pages past the end of the file are not returned.
+	 *
+	 * @param firstPgNo the number of the first page to read
+	 * @param count     the number of pages to read
+	 * @return the pages read, in page number order
+	 */
+	public List<Page> readPages(int firstPgNo, int count) {
+		List<Page> pages = new ArrayList<>();
+		try {
+			count = Math.max(0, Math.min(count, numPages() - firstPgNo));
+			byte[] data = new byte[count * pageSize];
+			MappedFile m = mapped;
+			if (m != null)
+				m.read((long) firstPgNo * pageSize, ByteBuffer.wrap(data));
+			else
+				files.read(file, (long) firstPgNo * pageSize, ByteBuffer.wrap(data));
+			for (int i = 0; i < count; ++i) {
+				HeapPageId pid = new HeapPageId(getId(), firstPgNo + i);
+				pages.add(new HeapPage(pid, Arrays.copyOfRange(data, i * pageSize, (i + 1) * pageSize)));
+			}
+			return pages;
+		} catch (IOException e) {
+			throw new RuntimeException("HeapFile readPages IO exception", e);
+		}
+	}
 	
 	// see DbFile.java for javadocs
 	public void writePage(Page page) throws IOException {
 		// some code goes here
 		// not necessary for lab1
 		int pageNo = page.getId().pageNumber();
-		int pageSize = BufferPool.getPageSize();
 		
-		raf.seek(pageNo * pageSize);
-		raf.write(page.getPageData());
+		byte[] pageData = page.getPageData();
+		files.write(file, (long) pageNo * pageSize, ByteBuffer.wrap(pageData));
+	}
+	
+	// see DbFile.java for javadocs
+	@Override
+	public void writePages(List<Page> pages) throws IOException {
+		files.with(file, channel -> {
+			PageRunWriter.write(channel, pages, pid -> (long) pid.pageNumber() * pageSize);
+			channel.force(false);
+			return null;
+		});
 	}
 	
 	/**
@@ -108,8 +225,9 @@ public class HeapFile implements DbFile {
 	public int numPages() {
 		// some code goes here
 		try {
-			assert raf.length() % BufferPool.getPageSize() == 0;
-			return (int) (raf.length() / BufferPool.getPageSize());
+			long length = files.size(file);
+			assert length % pageSize == 0;
+			return (int) (length / pageSize);
 		} catch (IOException e) {
 			throw new RuntimeException("HeapFile numPages exception");
 		}
@@ -120,16 +238,56 @@ public class HeapFile implements DbFile {
 		for (int pgNo = 0; pgNo < numPages(); ++pgNo) {
 			HeapPageId pid = new HeapPageId(getId(), pgNo);
 			HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-			if (page.getNumEmptySlots() > 0)
+			boolean hasEmptySlot = page.getNumEmptySlots() > 0;
+			Database.getBufferPool().unpinPage(tid, pid);
+			if (hasEmptySlot)
 				return pid;
 		}
 		
 		// if no page is empty, create another one and flush to the disk.
-		HeapPageId newPid = new HeapPageId(getId(), numPages());
-		HeapPage newPage = new HeapPage(newPid, HeapPage.createEmptyPageData());
-		writePage(newPage);
-		
-		return newPid;
+		// appending must be atomic, otherwise two inserters may claim the same page.
+		synchronized (this) {
+			HeapPageId newPid = new HeapPageId(getId(), numPages());
+			HeapPage newPage = new HeapPage(newPid, HeapPage.createEmptyPageData(pageSize));
+			writePage(newPage);
+			
+			return newPid;
+		}
+	}
+	
+	/**
+	 * Insert t into a free slot that tid can lock at once, appending a page
+	 * if there is none, so that concurrent inserters fill the same pages.
+	 *
+	 * @return the page t was inserted into
+	 */
+	private HeapPage insertRecord(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		BufferPool bp = Database.getBufferPool();
+		while (true) {
+			int pages = numPages();
+			for (int pgNo = Math.min(freeSlotHint, pages); pgNo < pages; ++pgNo) {
+				HeapPageId pid = new HeapPageId(getId(), pgNo);
+				HeapPage view = bp.peekRecords(tid, pid);
+				if (view.getNumEmptySlots() == 0 && freeSlotHint == pgNo)
+					freeSlotHint = pgNo + 1;
+				for (int slot = 0; slot < view.getNumSlots(); ++slot) {
+					if (view.isSlotUsed(slot))
+						continue;
+					HeapPage page = bp.tryGetRecordPage(tid, new RecordId(pid, slot));
+					// the slot may have been taken since it was seen.
+					if (page == null || page.isSlotUsed(slot))
+						continue;
+					page.insertTuple(t, slot);
+					return page;
+				}
+			}
+			
+			synchronized (this) {
+				if (numPages() == pages)
+					writePage(new HeapPage(new HeapPageId(getId(), pages), HeapPage.createEmptyPageData(pageSize)));
+			}
+		}
 	}
 	
 	// see DbFile.java for javadocs
@@ -137,6 +295,10 @@ public class HeapFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
 		ArrayList<Page> dirtyPages = new ArrayList<>();
+		if (Database.getBufferPool().locksRecords(tid)) {
+			dirtyPages.add(insertRecord(tid, t));
+			return dirtyPages;
+		}
 		
 		// get a page with empty slot.
 		HeapPageId pid = getEmptyPageNo(tid);
@@ -156,8 +318,14 @@ public class HeapFile implements DbFile {
 		// not necessary for lab1
 		ArrayList<Page> dirtyPages = new ArrayList<>();
 		
-		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+		BufferPool bp = Database.getBufferPool();
+		RecordId rid = t.getRecordId();
+		HeapPage page = bp.locksRecords(tid)
+				? bp.getRecordPage(tid, rid)
+				: (HeapPage) bp.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
 		page.deleteTuple(t);
+		if (rid.getPageId().pageNumber() < freeSlotHint)
+			freeSlotHint = rid.getPageId().pageNumber();
 		
 		dirtyPages.add(page);
 		
@@ -167,18 +335,33 @@ public class HeapFile implements DbFile {
 	// see DbFile.java for javadocs
 	public DbFileIterator iterator(TransactionId tid) {
 		// some code goes here
-		
+		return iterator(tid, null);
+	}
+	
+	// see DbFile.java for javadocs
+	@Override
+	public DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy) {
 		return new DbFileIterator() {
 			private int curPageNo;
 			private HeapPage curPage = null;
 			private Iterator<Tuple> pageIter = null;
+			private final ReadAhead readAhead = new ReadAhead(strategy);
+			
+			private void loadPage() throws DbException, TransactionAbortedException {
+				HeapPageId pid = new HeapPageId(getId(), curPageNo);
+				readAhead.heapAccess(getId(), curPageNo, numPages());
+				// the previous page is done with, so that a small pool can evict it.
+				if (curPage != null)
+					Database.getBufferPool().unpinPage(tid, curPage.getId());
+				curPage = null;
+				curPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY, strategy);
+				pageIter = curPage.iterator();
+			}
 			
 			@Override
 			public void open() throws DbException, TransactionAbortedException {
 				curPageNo = 0;
-				HeapPageId pid = new HeapPageId(getId(), curPageNo);
-				curPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-				pageIter = curPage.iterator();
+				loadPage();
 			}
 			
 			@Override
@@ -199,9 +382,7 @@ public class HeapFile implements DbFile {
 					else {
 						// fetch next page.
 						curPageNo += 1;
-						HeapPageId pid = new HeapPageId(getId(), curPageNo);
-						curPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-						pageIter = curPage.iterator();
+						loadPage();
 					}
 				}
 			}
@@ -216,11 +397,8 @@ public class HeapFile implements DbFile {
 					return pageIter.next();
 				} else {
 					curPageNo++;
-					HeapPageId pid = new HeapPageId(getId(), curPageNo);
-					curPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-					pageIter = curPage.iterator();
+					loadPage();
 					assert pageIter.hasNext();
-					// TODO : release the page
 					return pageIter.next();
 				}
 			}
@@ -228,14 +406,13 @@ public class HeapFile implements DbFile {
 			@Override
 			public void rewind() throws DbException, TransactionAbortedException {
 				curPageNo = 0;
-				HeapPageId pid = new HeapPageId(getId(), curPageNo);
-				curPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-				pageIter = curPage.iterator();
+				loadPage();
 			}
 			
 			@Override
 			public void close() {
-				// TODO : release the page
+				if (curPage != null)
+					Database.getBufferPool().unpinPage(tid, curPage.getId());
 				curPage = null;
 				pageIter = null;
 			}
@@ -22,19 +22,24 @@ public class HeapPage implements Page {
 	private final Byte oldDataLock = new Byte((byte) 0);
 	
 	private TransactionId dirtyTransactionId = null;
+	/**
+	 * size of this page in bytes, the page size of its file.
+	 */
+	private final int pageSize;
 	
 	/**
 	 * Create a HeapPage from a set of bytes of data read from disk.
 	 * The format of a HeapPage is a set of header bytes indicating
 	 * the slots of the page that are in use, some number of tuple slots.
 	 * Specifically, the number of tuples is equal to: <p>
-	 * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+	 * floor((page size*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
 	 * database table, which can be determined via {@link Catalog#getTupleDesc}.
 	 * The number of 8-bit header words is equal to:
 	 * <p>
 	 * ceiling(no. tuple slots / 8)
 	 * <p>
+	 * The page size is the length of data, see {@link DbFile#getPageSize()}.
 	 *
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
@@ -42,6 +47,7 @@ public class HeapPage implements Page {
 	 */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException {
 		this.pid = id;
+		this.pageSize = data.length;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 		this.numSlots = getNumTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
@@ -71,7 +77,7 @@ public class HeapPage implements Page {
 	 */
 	private int getNumTuples() {
 		// some code goes here
-		return (int) Math.floor((BufferPool.getPageSize() * 8.) / (td.getSize() * 8. + 1.));
+		return (int) Math.floor((pageSize * 8.) / (td.getSize() * 8. + 1.));
 	}
 	
 	/**
@@ -165,7 +171,7 @@ public class HeapPage implements Page {
 	 * @see #HeapPage
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 		
@@ -208,7 +214,7 @@ public class HeapPage implements Page {
 		}
 		
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+		int zerolen = pageSize - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -235,8 +241,14 @@ public class HeapPage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Like {@link #createEmptyPageData()}, for a file with the given page size.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 	
 	/**
@@ -256,13 +268,15 @@ public class HeapPage implements Page {
 		if (rid == null || rid.getPageId() == null)
 			throw new DbException("HeapPage delete, tuple has no valid recordId.");
 		
-		if (getId() != rid.getPageId())
+		if (!getId().equals(rid.getPageId()))
 			throw new DbException("HeapPage delete, tuple does not exist in this page.");
 		
 		if (!isSlotUsed(rid.tupleno()))
 			throw new DbException("HeapPage delete, tuple does not exist in this page.");
 		
-		t.setRecordId(null);
+		// t may belong to another copy of this page, which still holds it.
+		if (tuples[rid.tupleno()] == t)
+			t.setRecordId(null);
 		markSlotUsed(rid.tupleno(), false);
 	}
 	
@@ -292,9 +306,39 @@ public class HeapPage implements Page {
 		
 		assert freeSlotNo != -1;
 		
-		tuples[freeSlotNo] = t;
-		markSlotUsed(freeSlotNo, true);
-		t.setRecordId(new RecordId(getId(), freeSlotNo));
+		insertTuple(t, freeSlotNo);
+	}
+	
+	/**
+	 * Adds the specified tuple to the page in the given slot, which must be
+	 * empty.
+	 *
+	 * @throws DbException if the slot is not empty, or the tupledesc is
+	 *                     mismatch.
+	 */
+	public void insertTuple(Tuple t, int slot) throws DbException {
+		if (isSlotUsed(slot) || !t.getTupleDesc().equals(td))
+			throw new DbException("HeapPage insert error.");
+		
+		tuples[slot] = t;
+		markSlotUsed(slot, true);
+		t.setRecordId(new RecordId(getId(), slot));
+	}
+	
+	/**
+	 * Make a slot hold what it holds in other, another copy of this page,
+	 * leaving the other slots alone.
+	 */
+	void copySlot(HeapPage other, int slot) {
+		boolean used = other.isSlotUsed(slot);
+		markSlotUsed(slot, used);
+		if (!used)
+			return;
+		Tuple t = new Tuple(td);
+		for (int i = 0; i < td.numFields(); i++)
+			t.setField(i, other.tuples[slot].getField(i));
+		t.setRecordId(new RecordId(getId(), slot));
+		tuples[slot] = t;
 	}
 	
 	/**
@@ -320,6 +364,13 @@ public class HeapPage implements Page {
 		return dirtyTransactionId;
 	}
 	
+	/**
+	 * Returns the number of slots on this page.
+	 */
+	public int getNumSlots() {
+		return numSlots;
+	}
+	
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * HotPageSet is the file in which the LogFile records the pages resident in
+ * the BufferPool at a checkpoint, with the number of times each was
+ * requested, so that a restarted database can preload them instead of
+ * warming up its pool through cold misses.
+ * <p>
+ * The file holds a count followed by one entry per page: the class name of
+ * the PageId, its serialized integers, and the access count.
+ */
+class HotPageSet {
+	private HotPageSet() {
+	}
+
+	/**
+	 * Replace the contents of f with the given pages. The file is written
+	 * next to f and renamed, so a crash leaves the previous set intact.
+	 */
+	static void save(File f, Map<PageId, Integer> accesses) throws IOException {
+		File tmp = new File(f.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(accesses.size());
+			for (Map.Entry<PageId, Integer> e : accesses.entrySet()) {
+				int[] data = e.getKey().serialize();
+				out.writeUTF(e.getKey().getClass().getName());
+				out.writeInt(data.length);
+				for (int d : data)
+					out.writeInt(d);
+				out.writeInt(e.getValue());
+			}
+		}
+		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the pages recorded in f, most frequently requested first, or
+	 * an empty list if there is no such file.
+	 */
+	static List<PageId> load(File f) throws IOException {
+		if (!f.exists())
+			return Collections.emptyList();
+		List<PageId> pids = new ArrayList<>();
+		Map<PageId, Integer> accesses = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(f)))) {
+			int n = in.readInt();
+			for (int i = 0; i < n; ++i) {
+				String className = in.readUTF();
+				Object[] args = new Object[in.readInt()];
+				for (int j = 0; j < args.length; ++j)
+					args[j] = in.readInt();
+				PageId pid = newPageId(className, args);
+				pids.add(pid);
+				accesses.put(pid, in.readInt());
+			}
+		}
+		pids.sort((a, b) -> Integer.compare(accesses.get(b), accesses.get(a)));
+		return pids;
+	}
+
+	private static PageId newPageId(String className, Object[] args) throws IOException {
+		try {
+			for (Constructor<?> c : Class.forName(className).getDeclaredConstructors()) {
+				if (c.getParameterCount() == args.length)
+					return (PageId) c.newInstance(args);
+			}
+		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException
+				| InvocationTargetException | IllegalArgumentException | ClassCastException e) {
+			throw new IOException("bad page id " + className, e);
+		}
+		throw new IOException("bad page id " + className);
+	}
+}
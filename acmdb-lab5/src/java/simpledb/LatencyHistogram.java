@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in buckets of powers of two
+ * microseconds: bucket i holds the durations below 2^i us that did not fit
+ * in bucket i-1. Recording never blocks, so it can be done on every I/O.
+ */
+class LatencyHistogram {
+	private static final int BUCKETS = 32;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+
+	LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; ++i)
+			buckets[i] = new LongAdder();
+	}
+
+	void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets[bucket].increment();
+		count.increment();
+		totalNanos.add(nanos);
+	}
+
+	long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the mean duration in microseconds, 0 if nothing was recorded.
+	 */
+	double getMeanMicros() {
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+	}
+
+	/**
+	 * @param q the quantile, between 0 and 1
+	 * @return an upper bound in microseconds of the q-quantile of the
+	 * recorded durations, 0 if nothing was recorded.
+	 */
+	long getQuantileMicros(double q) {
+		long[] counts = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts[i] = buckets[i].sum();
+			n += counts[i];
+		}
+		long rank = (long) Math.ceil(q * n);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts[i];
+			if (seen >= rank && seen > 0)
+				return 1L << i;
+		}
+		return 0;
+	}
+
+	void reset() {
+		for (LongAdder b : buckets)
+			b.reset();
+		count.reset();
+		totalNanos.reset();
+	}
+}
@@ -88,6 +88,7 @@ public class LogFile {
     final static int LONG_SIZE = 8;
 
     long currentOffset = -1;//protected by this
+    long forcedOffset = 0; // the log is on disk up to here //protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
@@ -191,14 +192,21 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the log sequence number of the record, i.e. the offset
+        the log must be forced to before the after image may be written
 
         @see simpledb.Page#getBeforeImage
+        @see #forceTo
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        // pages may be written back for transactions that never logged
+        // BEGIN; rollback still needs to find their records.
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
         /* update record conists of
 
            record type
@@ -216,6 +224,7 @@ public class LogFile {
         currentOffset = raf.getFilePointer();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return currentOffset;
     }
 
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
@@ -269,13 +278,17 @@ public class LogFile {
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
-            Object[] pageArgs = new Object[2];
+            // B+ tree leaf and internal pages also take the key field
+            Constructor<?> pageConst = pageConsts[0];
+            Object[] pageArgs = new Object[pageConst.getParameterTypes().length];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
+            if (pageArgs.length > 2)
+                pageArgs[2] = ((BTreeFile)Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -316,6 +329,12 @@ public class LogFile {
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
+    /** The file in which checkpoints record the pages resident in the
+        buffer pool, see {@link Database#warmUp()}. */
+    public File pageSetFile() {
+        return new File(logFile.getPath() + ".pages");
+    }
+
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
@@ -351,6 +370,14 @@ public class LogFile {
                 raf.writeLong(currentOffset);
                 currentOffset = raf.getFilePointer();
                 //Debug.log("CP OFFSET = " + currentOffset);
+
+                // remember the hot pages for the next start; losing them
+                // only costs a cold pool.
+                try {
+                    HotPageSet.save(pageSetFile(), Database.getBufferPool().accessCounts());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
 
@@ -450,6 +477,8 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        // offsets have changed, so make the whole new log durable
+        force();
         //print();
     }
 
@@ -467,6 +496,34 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    return; // nothing of tid was logged
+
+                // the first before image of each page is its state before tid
+                LinkedHashMap<PageId, Page> beforeImages = new LinkedHashMap<PageId, Page>();
+                raf.seek(firstRecord);
+                try {
+                    while (raf.getFilePointer() < currentOffset) {
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        if (type == UPDATE_RECORD) {
+                            Page before = readPageData(raf);
+                            readPageData(raf);
+                            if (recordTid == tid.getId() && !beforeImages.containsKey(before.getId()))
+                                beforeImages.put(before.getId(), before);
+                        } else if (type == CHECKPOINT_RECORD) {
+                            int numXactions = raf.readInt();
+                            raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                        }
+                        raf.readLong();
+                    }
+                } finally {
+                    raf.seek(currentOffset);
+                }
+
+                for (Page before : beforeImages.values())
+                    Database.getBufferPool().restorePage(before);
             }
         }
     }
@@ -494,10 +551,97 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+
+                // analysis: read the whole log, remembering the outcome of
+                // each transaction and its updates in log order. A record
+                // cut short by the crash ends the log.
+                Set<Long> committed = new HashSet<Long>();
+                Set<Long> aborted = new HashSet<Long>();
+                Set<Long> started = new LinkedHashSet<Long>();
+                List<Long> updateTids = new ArrayList<Long>();
+                List<Page[]> updates = new ArrayList<Page[]>();
+                long end = LONG_SIZE;
+                raf.seek(end);
+                try {
+                    while (true) {
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        Page[] update = null;
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            update = new Page[] { readPageData(raf), readPageData(raf) };
+                            break;
+                        case CHECKPOINT_RECORD:
+                            int numXactions = raf.readInt();
+                            while (numXactions-- > 0) {
+                                started.add(raf.readLong());
+                                raf.readLong();
+                            }
+                            break;
+                        case COMMIT_RECORD:
+                            committed.add(recordTid);
+                            break;
+                        case ABORT_RECORD:
+                            aborted.add(recordTid);
+                            break;
+                        }
+                        raf.readLong();
+
+                        if (type != CHECKPOINT_RECORD)
+                            started.add(recordTid);
+                        if (update != null) {
+                            updateTids.add(recordTid);
+                            updates.add(update);
+                        }
+                        end = raf.getFilePointer();
+                    }
+                } catch (EOFException e) {
+                    // end of log
+                }
+                raf.setLength(end);
+
+                // redo the updates of committed transactions in log order,
+                // then undo those of transactions that never finished
+                Set<PageId> touched = new HashSet<PageId>();
+                for (int i = 0; i < updates.size(); i++) {
+                    if (committed.contains(updateTids.get(i)))
+                        writeRecovered(updates.get(i)[1], touched);
+                }
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    long recordTid = updateTids.get(i);
+                    if (!committed.contains(recordTid) && !aborted.contains(recordTid))
+                        writeRecovered(updates.get(i)[0], touched);
+                }
+                for (PageId pid : touched)
+                    Database.getBufferPool().discardPage(pid);
+
+                // record the undone transactions as aborted, so that a later
+                // recovery does not undo them over newer updates
+                raf.seek(end);
+                currentOffset = end;
+                tidToFirstLogRecord.clear();
+                for (Long loser : started) {
+                    if (committed.contains(loser) || aborted.contains(loser))
+                        continue;
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(loser);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                }
+                force();
             }
          }
     }
 
+    private void writeRecovered(Page page, Set<PageId> touched) throws IOException {
+        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+        touched.add(page.getId());
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
@@ -505,6 +649,17 @@ public class LogFile {
 
     public  synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        forcedOffset = currentOffset;
+    }
+
+    /** Force the log to disk if it is not on disk up to the given log
+        sequence number yet.
+
+        @param lsn a value returned by logWrite
+    */
+    public synchronized void forceTo(long lsn) throws IOException {
+        if (lsn > forcedOffset)
+            force();
     }
 
 }
@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement. Pages referenced fewer than K times live on a FIFO
+ * history list and are always evicted before pages that have proven to be
+ * re-referenced, which keeps a one-pass scan from flushing the working set.
+ * <p>
+ * Exact LRU-K orders the hot list by the K-th most recent reference and
+ * needs a priority queue. We keep the hot list in plain recency order
+ * instead, so that every operation stays O(1).
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+	public static final int DEFAULT_K = 2;
+
+	private final int k;
+
+	/**
+	 * reference count of every resident page.
+	 */
+	private final HashMap<PageId, Integer> refs = new HashMap<>();
+
+	/**
+	 * pages with fewer than k references, in order of first reference.
+	 */
+	private final LinkedHashMap<PageId, Boolean> history = new LinkedHashMap<>();
+
+	/**
+	 * pages with at least k references, least recently used first.
+	 */
+	private final LinkedHashMap<PageId, Boolean> hot = new LinkedHashMap<>(16, 0.75f, true);
+
+	public LruKPolicy(int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("k must be positive");
+		this.k = k;
+	}
+
+	@Override
+	public void admit(PageId pid) {
+		if (refs.containsKey(pid)) {
+			access(pid);
+			return;
+		}
+		refs.put(pid, 1);
+		if (k == 1)
+			hot.put(pid, Boolean.TRUE);
+		else
+			history.put(pid, Boolean.TRUE);
+	}
+
+	@Override
+	public void access(PageId pid) {
+		Integer count = refs.get(pid);
+		if (count == null)
+			return;
+
+		if (count + 1 >= k) {
+			history.remove(pid);
+			hot.put(pid, Boolean.TRUE); // moves to the most recently used end
+		}
+		refs.put(pid, Math.min(count + 1, k));
+	}
+
+	@Override
+	public void remove(PageId pid) {
+		if (refs.remove(pid) == null)
+			return;
+		history.remove(pid);
+		hot.remove(pid);
+	}
+
+	@Override
+	public PageId victim(Predicate<PageId> evictable) {
+		for (PageId pid : history.keySet())
+			if (evictable.test(pid))
+				return pid;
+		for (PageId pid : hot.keySet())
+			if (evictable.test(pid))
+				return pid;
+		return null;
+	}
+
+	@Override
+	public int size() {
+		return refs.size();
+	}
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * MappedFile is the read path of a DbFile in memory-mapped mode: the file is
+ * mapped read-only with FileChannel.map, and pages are copied out of the
+ * mapping instead of being read with a system call. The mapping shares the
+ * operating system's page cache, so writes through the file's own handles
+ * are visible at once.
+ * <p>
+ * A file grows when pages are appended; the mapping is extended the first
+ * time a read goes past its end. SimpleDb files never shrink, which the
+ * mapping relies on.
+ */
+class MappedFile {
+	/**
+	 * Whether new heap and B+ tree files read through a mapping,
+	 * overridable with -Dsimpledb.MappedReads=true.
+	 */
+	static final boolean DEFAULT_MAPPED_READS = Boolean.getBoolean("simpledb.MappedReads");
+
+	/**
+	 * Largest region mapped at once; a ByteBuffer is indexed by int.
+	 */
+	private static final long CHUNK_BYTES = 1 << 30;
+
+	private static class Mapping {
+		/**
+		 * chunk i maps the bytes from i * CHUNK_BYTES, the last one up to
+		 * length.
+		 */
+		final ByteBuffer[] chunks;
+		final long length;
+
+		Mapping(ByteBuffer[] chunks, long length) {
+			this.chunks = chunks;
+			this.length = length;
+		}
+	}
+
+	private final File file;
+	private volatile Mapping mapping = new Mapping(new ByteBuffer[0], 0);
+
+	MappedFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Copy the bytes of the file from offset into dst, as many as dst has
+	 * room for or the file holds.
+	 *
+	 * @return the number of bytes copied, less than requested only at the
+	 * end of the file
+	 */
+	int read(long offset, ByteBuffer dst) throws IOException {
+		int want = dst.remaining();
+		Mapping m = mapping;
+		if (offset + want > m.length)
+			m = remap();
+		int n = 0;
+		while (n < want && offset + n < m.length) {
+			long pos = offset + n;
+			ByteBuffer chunk = m.chunks[(int) (pos / CHUNK_BYTES)].duplicate();
+			int from = (int) (pos % CHUNK_BYTES);
+			int len = Math.min(want - n, chunk.limit() - from);
+			chunk.limit(from + len);
+			chunk.position(from);
+			dst.put(chunk);
+			n += len;
+		}
+		return n;
+	}
+
+	/**
+	 * Extend the mapping to the current length of the file. Chunks that
+	 * were already complete are kept.
+	 */
+	private synchronized Mapping remap() throws IOException {
+		Mapping m = mapping;
+		return FileHandleCache.shared().with(file, channel -> {
+			long length = channel.size();
+			if (length <= m.length)
+				return m;
+			int full = (int) (m.length / CHUNK_BYTES);
+			ByteBuffer[] chunks = Arrays.copyOf(m.chunks, (int) ((length + CHUNK_BYTES - 1) / CHUNK_BYTES));
+			for (int i = full; i < chunks.length; ++i) {
+				long start = i * CHUNK_BYTES;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_BYTES, length - start));
+			}
+			// a mapping stays valid after the channel is closed.
+			return mapping = new Mapping(chunks, length);
+		});
+	}
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * PageCleaner is the background writer of a BufferPool running in
+ * STEAL/NO-FORCE mode. Commits only log their pages, so committed updates
+ * stay dirty in the pool; the cleaner writes them back periodically, and
+ * whenever eviction finds no clean page, so that eviction rarely has to do
+ * the writing itself.
+ * <p>
+ * A round that fails is logged, and the cleaner waits twice as long before
+ * each further try, up to {@link #MAX_BACKOFF}; wake-ups only stop it early
+ * then if it is no longer needed. Eviction writes back pages itself
+ * meanwhile.
+ * <p>
+ * The cleaner only holds a weak reference to its pool and stops once the
+ * pool is gone, has left STEAL/NO-FORCE mode or has been retired by the
+ * Database.
+ *
+ * @see BufferPool#setStealNoForce(boolean)
+ */
+class PageCleaner extends Thread {
+	/**
+	 * Time between two rounds of cleaning, in ms.
+	 */
+	static final long INTERVAL = 50;
+
+	/**
+	 * Most pages written per round.
+	 */
+	static final int BATCH = 64;
+
+	/**
+	 * Longest wait after failed rounds, in ms.
+	 */
+	static final long MAX_BACKOFF = 5000;
+
+	private final WeakReference<BufferPool> pool;
+	private boolean wakeUp = false;
+
+	PageCleaner(BufferPool pool) {
+		super("simpledb-cleaner");
+		this.pool = new WeakReference<>(pool);
+		setDaemon(true);
+	}
+
+	/**
+	 * Start a round of cleaning now rather than at the next interval.
+	 */
+	synchronized void wakeUp() {
+		wakeUp = true;
+		notify();
+	}
+
+	@Override
+	public void run() {
+		long backoff = 0;
+		while (true) {
+			synchronized (this) {
+				try {
+					if (backoff > 0) {
+						long deadline = System.currentTimeMillis() + backoff;
+						for (long left = backoff; left > 0 && !stopped(); left = deadline - System.currentTimeMillis())
+							wait(left);
+					} else if (!wakeUp)
+						wait(INTERVAL);
+				} catch (InterruptedException e) {
+					return;
+				}
+				wakeUp = false;
+			}
+
+			BufferPool bp = pool.get();
+			if (bp == null || !bp.isCleaner(this))
+				return;
+			try {
+				bp.cleanPages(BATCH);
+				backoff = 0;
+			} catch (Exception e) {
+				// the pages stay dirty and are tried again later.
+				backoff = Math.min(MAX_BACKOFF, Math.max(INTERVAL, 2 * backoff));
+				Debug.log("page cleaner: %s, next try in %d ms", e, backoff);
+			}
+		}
+	}
+
+	/**
+	 * @return whether the pool is gone or has another cleaner, if any.
+	 */
+	private boolean stopped() {
+		BufferPool bp = pool.get();
+		return bp == null || !bp.isCleaner(this);
+	}
+}
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * PageRunWriter writes a batch of pages of one file: pages that are
+ * adjacent on disk are coalesced into runs, and each run is written with a
+ * single positional write.
+ */
+class PageRunWriter {
+	private PageRunWriter() {
+	}
+
+	/**
+	 * Write pages through channel. The position of the channel is not used,
+	 * so the channel may be shared with other threads.
+	 *
+	 * @param channel  the channel of the file
+	 * @param pages    the pages to write, sorted by offset
+	 * @param offsetOf where a page starts in the file
+	 */
+	static void write(FileChannel channel, List<Page> pages, ToLongFunction<PageId> offsetOf)
+			throws IOException {
+		List<byte[]> run = new ArrayList<>();
+		int first = 0;
+		while (first < pages.size()) {
+			long offset = offsetOf.applyAsLong(pages.get(first).getId());
+			long end = offset;
+			int last = first;
+			run.clear();
+			while (last < pages.size() && offsetOf.applyAsLong(pages.get(last).getId()) == end) {
+				byte[] data = pages.get(last).getPageData();
+				end += data.length;
+				run.add(data);
+				++last;
+			}
+
+			// there is no positional gathering write; the channel copies heap
+			// buffers before writing them anyway.
+			ByteBuffer buffer = ByteBuffer.allocate((int) (end - offset));
+			for (byte[] data : run)
+				buffer.put(data);
+			buffer.flip();
+			long pos = offset;
+			while (buffer.hasRemaining())
+				pos += channel.write(buffer, pos);
+			first = last;
+		}
+	}
+}
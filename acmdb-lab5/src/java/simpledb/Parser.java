@@ -581,7 +581,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "stats" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -607,6 +607,7 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        Database.warmUp();
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -681,6 +682,13 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (cmd.equalsIgnoreCase("stats;")) {
+                        // buffer pool counters, see BufferPoolStats
+                        System.out.print(Database.getBufferPool().getStats().report());
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
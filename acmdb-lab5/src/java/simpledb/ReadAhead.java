@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ReadAhead watches the pages a scan iterator visits. Once the scan looks
+ * sequential -- consecutive heap pages, or a walk along the right sibling
+ * links of B+ tree leaves -- it asks the BufferPool to prefetch the next
+ * pages of the scan on a background thread, so that the scan overlaps its
+ * reads with its own processing.
+ * <p>
+ * Only files larger than the pool are read ahead: a smaller file is resident
+ * after one pass anyway, and prefetching it would just evict other pages.
+ * Scans with a {@link BufferAccessStrategy} prefetch into their ring, and
+ * at most half a ring ahead so that prefetched pages do not recycle each
+ * other before the scan gets to them.
+ * <p>
+ * One ReadAhead belongs to one iterator and is not thread safe.
+ *
+ * @see BufferPool#getPrefetchWindow()
+ */
+public class ReadAhead {
+	/**
+	 * Number of sequential page visits before read-ahead starts.
+	 */
+	private static final int TRIGGER = 2;
+
+	private static final int NUM_THREADS = 2;
+
+	private static final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS, r -> {
+		Thread t = new Thread(r, "simpledb-readahead");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final BufferAccessStrategy strategy;
+
+	private int lastPgNo = -1;
+	private int run = 0;
+	private int prefetchedTo = -1;
+
+	public ReadAhead() {
+		this(null);
+	}
+
+	/**
+	 * @param strategy the ring of the scan, or null
+	 */
+	public ReadAhead(BufferAccessStrategy strategy) {
+		this.strategy = strategy;
+	}
+
+	private int window(BufferPool bp) {
+		int window = bp.getPrefetchWindow();
+		return strategy == null ? window : Math.min(window, strategy.size() / 2);
+	}
+
+	/**
+	 * Heap scans: the scan is now reading page pgNo of the table.
+	 *
+	 * @param tableId  the table being scanned
+	 * @param pgNo     the page number just requested
+	 * @param numPages the number of pages in the table
+	 */
+	public void heapAccess(int tableId, int pgNo, int numPages) {
+		if (pgNo == lastPgNo + 1) {
+			++run;
+		} else {
+			run = 0;
+			prefetchedTo = pgNo;
+		}
+		lastPgNo = pgNo;
+
+		final BufferPool bp = Database.getBufferPool();
+		if (numPages <= bp.getNumPages())
+			return;
+		int window = window(bp);
+		// wait until the scan is sequential, and keep at least half a window ahead.
+		if (run < TRIGGER || window == 0 || prefetchedTo - pgNo > window / 2)
+			return;
+
+		int from = Math.max(prefetchedTo, pgNo) + 1;
+		int to = Math.min(numPages - 1, pgNo + window);
+		if (from > to)
+			return;
+		prefetchedTo = to;
+
+		final List<PageId> pids = new ArrayList<>();
+		for (int i = from; i <= to; ++i)
+			pids.add(new HeapPageId(tableId, i));
+		executor.execute(() -> bp.prefetch(pids, strategy));
+	}
+
+	/**
+	 * B+ tree scans: the scan followed a right sibling link to this leaf.
+	 * The ids of later leaves are only known from their left neighbours, so
+	 * the background task walks the sibling chain itself.
+	 *
+	 * @param leaf     the leaf page just reached
+	 * @param numPages the number of pages in the B+ tree file
+	 */
+	public void leafAccess(BTreeLeafPage leaf, int numPages) {
+		final BufferPool bp = Database.getBufferPool();
+		final int window = window(bp);
+		if (++run < TRIGGER || window == 0 || numPages <= bp.getNumPages())
+			return;
+		// the previous walk covered at least half a window past this leaf.
+		if (run - TRIGGER < prefetchedTo)
+			return;
+		prefetchedTo = run - TRIGGER + Math.max(1, window / 2);
+
+		final BTreePageId next = leaf.getRightSiblingId();
+		if (next == null)
+			return;
+		executor.execute(() -> {
+			BTreePageId pid = next;
+			for (int i = 0; i < window && pid != null; ++i) {
+				Page page = bp.prefetch(pid, strategy);
+				if (!(page instanceof BTreeLeafPage))
+					break;
+				pid = ((BTreeLeafPage) page).getRightSiblingId();
+			}
+		});
+	}
+}
@@ -72,11 +72,8 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-        // concatenate their binary representation, and then parse it to integer hashcode.
-        String hashStr = Integer.toBinaryString(pid.hashCode()) + Integer.toBinaryString(tupleNo);
-        if (hashStr.length() > 32)
-            hashStr = hashStr.substring(0, 31);
-        return Integer.parseInt(hashStr, 2);
+        // record locks hash a RecordId on every tuple update, so no strings.
+        return 31 * pid.hashCode() + tupleNo;
     }
 
 }
@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The pool reports every page that enters the pool,
+ * every hit, and every page that leaves it; the policy keeps whatever
+ * bookkeeping it needs to pick a victim in (amortized) constant time.
+ * <p>
+ * Implementations are not thread safe; the BufferPool serializes calls.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+	/**
+	 * The replacement policies that ship with SimpleDb. A kind can also be
+	 * selected with the system property simpledb.ReplacementPolicy, e.g.
+	 * -Dsimpledb.ReplacementPolicy=TWO_Q.
+	 */
+	public enum Kind {
+		CLOCK, LRU_K, TWO_Q;
+
+		/**
+		 * Create a fresh policy of this kind for a pool of numPages frames.
+		 */
+		public ReplacementPolicy create(int numPages) {
+			switch (this) {
+				case LRU_K:
+					return new LruKPolicy(LruKPolicy.DEFAULT_K);
+				case TWO_Q:
+					return new TwoQPolicy(numPages);
+				default:
+					return new ClockPolicy();
+			}
+		}
+
+		/**
+		 * Parse a kind by name, ignoring case. Returns fallback if name is
+		 * null or names no kind.
+		 */
+		public static Kind parse(String name, Kind fallback) {
+			if (name == null || name.isEmpty())
+				return fallback;
+			try {
+				return valueOf(name.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				return fallback;
+			}
+		}
+	}
+
+	/**
+	 * A page has just been brought into the pool.
+	 */
+	public void admit(PageId pid);
+
+	/**
+	 * A resident page has been requested again.
+	 */
+	public void access(PageId pid);
+
+	/**
+	 * A page has left the pool, either evicted or discarded.
+	 */
+	public void remove(PageId pid);
+
+	/**
+	 * Pick the page that should be evicted next. The policy only proposes pages
+	 * accepted by evictable (e.g. clean and unpinned pages); it does not forget
+	 * the victim, the pool calls {@link #remove} once the page is gone.
+	 *
+	 * @param evictable tells whether a page may be evicted right now
+	 * @return the victim, or null if no resident page is evictable
+	 */
+	public PageId victim(Predicate<PageId> evictable);
+
+	/**
+	 * The pool this policy serves now has numPages frames. Policies tuned to
+	 * the size of the pool adapt; the resident pages stay tracked.
+	 */
+	public default void resize(int numPages) {
+	}
+
+	/**
+	 * @return number of resident pages tracked by this policy
+	 */
+	public int size();
+}
@@ -81,7 +81,13 @@ public class SeqScan implements DbIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        iter = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        // a table bigger than the pool is read through a ring of frames,
+        // under one table lock rather than a lock on each of its pages.
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        BufferAccessStrategy strategy = BufferAccessStrategy.bulkRead(file);
+        if (strategy != null)
+            Database.getBufferPool().lockTable(tid, tableId, Permissions.READ_ONLY);
+        iter = file.iterator(tid, strategy);
         iter.open();
     }
 
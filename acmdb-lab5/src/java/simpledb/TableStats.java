@@ -102,7 +102,7 @@ public class TableStats {
 	
 	    Transaction transaction = new Transaction();
 	    TransactionId tid = transaction.getId();
-	    DbFileIterator iter = file.iterator(tid);
+	    DbFileIterator iter = file.iterator(tid, BufferAccessStrategy.bulkRead(file));
 	    
 	    tupleNum = 0;
 		
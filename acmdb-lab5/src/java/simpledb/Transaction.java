@@ -25,11 +25,40 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction running as a read-only snapshot of the last
+     * commit, which takes no locks.
+     *
+     * @see BufferPool#beginSnapshot(TransactionId)
+     */
+    public void startSnapshot() {
+        start();
+        Database.getBufferPool().beginSnapshot(tid);
+    }
+
+    /**
+     * Start the transaction running optimistically: it takes no locks until
+     * it commits, and its commit fails if another transaction has committed
+     * a page it read in the meantime.
+     *
+     * @see BufferPool#beginOptimistic(TransactionId)
+     */
+    public void startOptimistic() {
+        start();
+        Database.getBufferPool().beginOptimistic(tid);
+    }
+
     public TransactionId getId() {
         return tid;
     }
 
-    /** Finish the transaction */
+    /**
+     * Finish the transaction
+     *
+     * @throws IOException also if the transaction is optimistic and fails
+     *                     validation, with a TransactionAbortedException as
+     *                     its cause; the transaction is aborted then
+     */
     public void commit() throws IOException {
         transactionComplete(false);
     }
@@ -43,12 +72,22 @@ public class Transaction {
     public void transactionComplete(boolean abort) throws IOException {
 
         if (started) {
+            if (!abort) {
+                try {
+                    Database.getBufferPool().validate(tid);
+                } catch (TransactionAbortedException e) {
+                    transactionComplete(true);
+                    throw new IOException("transaction " + tid + " failed validation", e);
+                }
+            }
+
             //write commit / abort records
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
+                //write all the dirty pages for this transaction out,
+                //or only their log records when the pool is NO-FORCE
+                Database.getBufferPool().prepareCommit(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
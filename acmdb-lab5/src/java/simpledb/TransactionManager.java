@@ -2,132 +2,1071 @@ package simpledb;
 
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * TransactionManager is the lock manager of the BufferPool: it grants
+ * shared and exclusive page locks to transactions, holding them until
+ * released.
+ * <p>
+ * Each locked page has a queue: the locks granted on it, and the requests
+ * waiting for it in order of arrival. A request is granted at once if it is
+ * compatible with the granted locks and nobody waits ahead of it; otherwise
+ * its thread sleeps on a condition of its own. Whoever releases a lock
+ * grants the compatible requests at the head of the queue and wakes only
+ * their threads. A transaction upgrading its shared lock goes ahead of the
+ * other waiters, and is granted as soon as it is the only holder.
+ * <p>
+ * Deadlocks are found in the waits-for graph, whose edges lead from each
+ * waiting transaction to the transactions whose locks or earlier requests
+ * it waits for. Only a blocking request adds edges, so the graph is
+ * searched for a cycle through a transaction whenever it blocks; the
+ * youngest transaction of such a cycle is aborted.
+ * <p>
+ * Instead of detecting deadlocks, a Policy may prevent them, taking the
+ * order of TransactionIds as the age of transactions.
+ * <p>
+ * The queues are kept in a hash table split into stripes by page, each
+ * with its own latch, and every transaction has a set of the locks it
+ * holds. Granting, releasing and checking a lock thus takes one latch and
+ * a few hash lookups. A request that has to wait takes all the latches,
+ * in stripe order, since deadlock detection and prevention look at the
+ * queues of many pages; waiting costs a context switch anyway.
+ * <p>
+ * Tables are locked above their pages, in the modes of multi-granularity
+ * locking: a page lock needs an intention lock (IS or IX) on its table,
+ * which is taken with the first lock on a page of the table. A transaction
+ * holding S, SIX or X on a whole table needs no lock on the pages it reads,
+ * nor with X on those it writes; such pages are only noted in its set of
+ * locks, for the BufferPool to flush or discard, and never enter a queue.
+ * <p>
+ * Records are locked below their pages in the same way: a record lock needs
+ * IS or IX on its page and table, so that transactions changing different
+ * records of a page do not wait for each other, while a page lock covers
+ * all its records.
+ * <p>
+ * If escalation is enabled, which it is not by default, a transaction
+ * holding more than a threshold of page and record locks on one table, or
+ * any while the lock table holds more than its bound, has them escalated
+ * to a lock on the table: S if it only reads the table, X if it writes.
+ * Escalation never waits; if other transactions use the table, it is tried
+ * again once the transaction has twice the page locks.
+ */
 public class TransactionManager {
-	private ConcurrentHashMap<TransactionId, List<Lock>> trans2lock;
-	private ConcurrentHashMap<PageId, List<Lock>> page2write;
-	private ConcurrentHashMap<PageId, List<Lock>> page2read;
-	private Random rand = new Random(0);
-	private Object synchronizer;
+	/**
+	 * What happens to a request that cannot be granted at once.
+	 */
+	public enum Policy {
+		/**
+		 * Wait, and abort the youngest transaction of any deadlock.
+		 */
+		DETECT,
+		/**
+		 * Wait only for younger transactions; a requester younger than one
+		 * it would wait for aborts.
+		 */
+		WAIT_DIE,
+		/**
+		 * Wait only for older transactions; a requester older than one it
+		 * would wait for aborts that one ("wounds" it) and waits.
+		 */
+		WOUND_WAIT,
+		/**
+		 * Never wait; the requester aborts.
+		 */
+		NO_WAIT;
+
+		/**
+		 * Parse a policy by name, ignoring case. Returns fallback if name is
+		 * null or names no policy.
+		 */
+		public static Policy parse(String name, Policy fallback) {
+			if (name == null || name.isEmpty())
+				return fallback;
+			try {
+				return valueOf(name.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				return fallback;
+			}
+		}
+	}
 
 	public class Lock {
 		public TransactionId tid;
+		/**
+		 * the locked page or the page of the locked record, or null for a
+		 * lock on a whole table.
+		 */
 		public PageId pid;
-		public LockType type;
+		/**
+		 * changed in place by an upgrade, under the latch of its queue.
+		 */
+		public volatile LockType type;
+		/**
+		 * the page, RecordId or Table of the lock, the key of its queue.
+		 */
+		final Object key;
+		/**
+		 * set for a page or record lock implied by the lock on its table,
+		 * which is in no queue.
+		 */
+		final boolean implied;
+		/**
+		 * for a table lock, the number of page locks of tid on the table in
+		 * queues. Changed within the compute of the set of tid.
+		 */
+		volatile int pageLocks = 0;
+		/**
+		 * for a table lock, the number of page locks at which escalation is
+		 * tried again after failing.
+		 */
+		int retryEscalationAt = 0;
 
 		Lock(TransactionId tid, PageId pid, LockType t) {
+			this(tid, pid, pid, t, false);
+		}
+
+		Lock(TransactionId tid, Object key, PageId pid, LockType t, boolean implied) {
 			this.tid = tid;
+			this.key = key;
 			this.pid = pid;
 			type = t;
+			this.implied = implied;
 		}
 	}
 
+	/**
+	 * Lock modes. Records are only locked SHARED or EXCLUSIVE, pages in
+	 * these modes or with the intention to lock their records, and tables
+	 * in any mode.
+	 */
 	public enum LockType {
-		EXCLUSIVE, SHARED
+		INTENTION_SHARED,
+		INTENTION_EXCLUSIVE,
+		SHARED,
+		/**
+		 * SHARED and INTENTION_EXCLUSIVE at once: a reader of the whole table
+		 * that writes some of its pages.
+		 */
+		SHARED_INTENTION_EXCLUSIVE,
+		EXCLUSIVE
+	}
+
+	/**
+	 * The key of the queue of a table lock.
+	 */
+	private static final class Table {
+		final int id;
+
+		Table(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Table && ((Table) o).id == id;
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+	}
+
+	/**
+	 * A request waiting in the queue of a page or table.
+	 */
+	private class Request {
+		final TransactionId tid;
+		final LockType type;
+		final LockQueue queue;
+		final Condition ready;
+		boolean granted = false;
+		/**
+		 * set when the transaction was chosen to break a deadlock.
+		 */
+		boolean aborted = false;
+
+		Request(TransactionId tid, LockType type, LockQueue queue) {
+			this.tid = tid;
+			this.type = type;
+			this.queue = queue;
+			ready = queue.stripe.latch.newCondition();
+		}
+
+		/**
+		 * @return the transactions this request waits for: the holders of
+		 * conflicting locks and the conflicting requests queued ahead.
+		 */
+		List<TransactionId> blockers() {
+			List<TransactionId> blockers = new ArrayList<>();
+			for (Lock lock : queue.granted.values())
+				if (!lock.tid.equals(tid) && conflicts(lock.type, type))
+					blockers.add(lock.tid);
+			for (Request ahead : queue.waiting) {
+				if (ahead == this)
+					break;
+				if (!ahead.tid.equals(tid) && conflicts(ahead.type, type))
+					blockers.add(ahead.tid);
+			}
+			return blockers;
+		}
+
+		/**
+		 * @return whether the request upgrades a shared lock of its transaction.
+		 */
+		boolean isUpgrade(LockQueue queue) {
+			return queue.granted.containsKey(tid);
+		}
+	}
+
+	/**
+	 * The locks of one page or table.
+	 */
+	private class LockQueue {
+		final Object key;
+		final Stripe stripe;
+		final Map<TransactionId, Lock> granted = new HashMap<>();
+		final LinkedList<Request> waiting = new LinkedList<>();
+
+		LockQueue(Object key, Stripe stripe) {
+			this.key = key;
+			this.stripe = stripe;
+		}
+
+		/**
+		 * @return whether tid may hold a lock of the given type next to the
+		 * locks granted to other transactions.
+		 */
+		boolean compatible(TransactionId tid, LockType type) {
+			for (Lock lock : granted.values())
+				if (!lock.tid.equals(tid) && conflicts(lock.type, type))
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * A partition of the lock table. Its latch guards its queues, and the
+	 * requests and locks in them; lock waits never hold the BufferPool.
+	 * Latches of several stripes are taken in the order of their index.
+	 */
+	private class Stripe {
+		final int index;
+		final ReentrantLock latch = new ReentrantLock();
+		final Map<Object, LockQueue> queues = new HashMap<>();
+
+		Stripe(int index) {
+			this.index = index;
+		}
+
+		LockQueue queue(Object key) {
+			return queues.computeIfAbsent(key, k -> new LockQueue(k, this));
+		}
+	}
+
+	/**
+	 * COMPATIBLE[a][b] tells whether locks of modes a and b may be held on
+	 * one page or table by two transactions, by ordinal of LockType.
+	 */
+	private static final boolean[][] COMPATIBLE = {
+			//  IS     IX     S      SIX    X
+			{ true,  true,  true,  true,  false }, // IS
+			{ true,  true,  false, false, false }, // IX
+			{ true,  false, true,  false, false }, // S
+			{ true,  false, false, false, false }, // SIX
+			{ false, false, false, false, false }, // X
+	};
+
+	private static boolean conflicts(LockType a, LockType b) {
+		return !COMPATIBLE[a.ordinal()][b.ordinal()];
+	}
+
+	/**
+	 * @return the weakest mode granting what both a and b grant, the mode of
+	 * a lock of mode a upgraded for b.
+	 */
+	static LockType combine(LockType a, LockType b) {
+		if (a == b || b == LockType.INTENTION_SHARED)
+			return a;
+		if (a == LockType.INTENTION_SHARED)
+			return b;
+		if (a == LockType.EXCLUSIVE || b == LockType.EXCLUSIVE)
+			return LockType.EXCLUSIVE;
+		// any two of IX, S and SIX.
+		return LockType.SHARED_INTENTION_EXCLUSIVE;
+	}
+
+	/**
+	 * @return whether a lock of mode held grants everything one of mode
+	 * wanted would.
+	 */
+	static boolean covers(LockType held, LockType wanted) {
+		return combine(held, wanted) == held;
+	}
+
+	/**
+	 * the number of stripes, a power of two.
+	 */
+	private static final int STRIPES = 64;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	/**
+	 * the locks of each transaction. The set of a transaction is only
+	 * changed within compute, so that it cannot be dropped as empty while
+	 * a lock on another stripe is added to it.
+	 */
+	private final ConcurrentHashMap<TransactionId, Map<Object, Lock>> trans2lock = new ConcurrentHashMap<>();
+	/**
+	 * the request each blocked transaction waits on: the nodes of the
+	 * waits-for graph with outgoing edges. Changed under the latch of the
+	 * page of the request.
+	 */
+	private final Map<TransactionId, Request> waiting = new ConcurrentHashMap<>();
+	/**
+	 * running transactions wounded by older ones, which abort on their
+	 * next lock request, or while they wait for one.
+	 */
+	private final Set<TransactionId> wounded = ConcurrentHashMap.newKeySet();
+	private volatile Policy policy;
+	private final AtomicInteger deadlocks = new AtomicInteger();
+	/**
+	 * page locks per table beyond which a transaction escalates, 0 for never.
+	 */
+	private volatile int escalationThreshold = 0;
+	/**
+	 * page locks in all queues beyond which transactions escalate, 0 for no
+	 * bound.
+	 */
+	private volatile int maxPageLocks = 0;
+	private final AtomicInteger pageLocks = new AtomicInteger();
+	private final AtomicInteger escalations = new AtomicInteger();
+	/**
+	 * where escalations are reported, or null.
+	 */
+	private final BufferPoolStats stats;
+
+	public TransactionManager() {
+		this(Policy.DETECT);
+	}
+
+	public TransactionManager(Policy policy) {
+		this(policy, null);
+	}
+
+	public TransactionManager(Policy policy, BufferPoolStats stats) {
+		this.policy = policy;
+		this.stats = stats;
+		for (int i = 0; i < STRIPES; ++i)
+			stripes[i] = new Stripe(i);
+	}
+
+	public void setPolicy(Policy policy) {
+		this.policy = policy;
 	}
 
-	public TransactionManager(Object synchronizer) {
-		trans2lock = new ConcurrentHashMap<>();
-		page2write = new ConcurrentHashMap<>();
-		page2read = new ConcurrentHashMap<>();
-		this.synchronizer = synchronizer;
+	public Policy getPolicy() {
+		return policy;
 	}
 
+	/**
+	 * Escalate the page locks of a transaction on a table once it holds
+	 * more than threshold of them, or while more than maxPageLocks page
+	 * locks are held in all. 0 disables either.
+	 */
+	public void setEscalation(int threshold, int maxPageLocks) {
+		if (threshold < 0 || maxPageLocks < 0)
+			throw new IllegalArgumentException("escalation limits must not be negative");
+		escalationThreshold = threshold;
+		this.maxPageLocks = maxPageLocks;
+	}
+
+	private Stripe stripeOf(Object key) {
+		int h = key.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Take the latches of the given stripes, in the order of their index.
+	 */
+	private static void latch(SortedSet<Stripe> latched) {
+		for (Stripe stripe : latched)
+			stripe.latch.lock();
+	}
+
+	private static void unlatch(SortedSet<Stripe> latched) {
+		for (Stripe stripe : latched)
+			stripe.latch.unlock();
+	}
+
+	/**
+	 * @return a snapshot of the page locks held by tid, including those
+	 * implied by its table locks, or null if it holds none. Record locks
+	 * are left out.
+	 */
 	public List<Lock> getLocksFromTid(TransactionId tid) {
-		return trans2lock.get(tid);
+		List<Lock> snapshot = new ArrayList<>();
+		trans2lock.computeIfPresent(tid, (t, locks) -> {
+			for (Lock l : locks.values())
+				if (l.pid != null && !(l.key instanceof RecordId))
+					snapshot.add(new Lock(l.tid, l.pid, l.type));
+			return locks;
+		});
+		return snapshot.isEmpty() ? null : snapshot;
 	}
 
-	private void nap_mayAbort(long startTime) throws TransactionAbortedException {
-		int NAP_TIME = 50;
-		int ABORT_RAND_RANGE = 200;
-		int ABORT_BASE = 100;
+	/**
+	 * @return the lock tid holds on the page or Table key, or null. The set
+	 * of tid is concurrent, so this needs no latch. Other threads add to it
+	 * only to grant a request tid waits for, before they wake tid up under
+	 * the latch of the queue, so the thread of tid sees all its locks.
+	 */
+	private Lock heldLock(TransactionId tid, Object key) {
+		Map<Object, Lock> locks = trans2lock.get(tid);
+		return locks == null ? null : locks.get(key);
+	}
 
-		long curTime = System.currentTimeMillis();
-		if (curTime - startTime > ABORT_BASE + rand.nextInt(ABORT_RAND_RANGE)) {
-			throw new TransactionAbortedException();
+	private void addLock(TransactionId tid, Lock lock) {
+		trans2lock.compute(tid, (t, locks) -> {
+			if (locks == null)
+				locks = new ConcurrentHashMap<>();
+			Lock previous = locks.put(lock.key, lock);
+			if (lock.pid != null && !lock.implied && (previous == null || previous.implied))
+				countPageLocks(locks, lock.pid, 1);
+			return locks;
+		});
+	}
+
+	/**
+	 * Count delta page locks in queues on the table of pid, within the
+	 * compute of locks.
+	 */
+	private void countPageLocks(Map<Object, Lock> locks, PageId pid, int delta) {
+		Lock table = locks.get(new Table(pid.getTableId()));
+		if (table != null)
+			table.pageLocks += delta;
+		pageLocks.addAndGet(delta);
+	}
+
+	private static LockType typeOf(Permissions perm) {
+		return perm == Permissions.READ_ONLY ? LockType.SHARED : LockType.EXCLUSIVE;
+	}
+
+	/**
+	 * Grant tid a lock on the page or table of queue, or upgrade the one it
+	 * holds.
+	 */
+	private void grant(LockQueue queue, TransactionId tid, LockType type) {
+		Lock lock = queue.granted.get(tid);
+		if (lock != null) {
+			lock.type = type;
+			return;
+		}
+		PageId pid = queue.key instanceof PageId ? (PageId) queue.key
+				: queue.key instanceof RecordId ? ((RecordId) queue.key).getPageId() : null;
+		Lock granted = new Lock(tid, queue.key, pid, type, false);
+		queue.granted.put(tid, granted);
+		addLock(tid, granted);
+	}
+
+	/**
+	 * @return the mode tid has to hold on the page or table of queue for a
+	 * lock of the given type, or null if it holds that already.
+	 */
+	private static LockType wanted(LockQueue queue, TransactionId tid, LockType type) {
+		Lock lock = queue.granted.get(tid);
+		if (lock == null)
+			return type;
+		return covers(lock.type, type) ? null : combine(lock.type, type);
+	}
+
+	/**
+	 * Grant the requests at the head of the queue that have become
+	 * compatible, and wake their threads.
+	 */
+	private void grantWaiters(LockQueue queue) {
+		Iterator<Request> it = queue.waiting.iterator();
+		while (it.hasNext()) {
+			Request r = it.next();
+			if (!queue.compatible(r.tid, r.type))
+				break;
+			it.remove();
+			waiting.remove(r.tid, r);
+			grant(queue, r.tid, r.type);
+			r.granted = true;
+			r.ready.signal();
+		}
+		if (queue.granted.isEmpty() && queue.waiting.isEmpty())
+			queue.stripe.queues.remove(queue.key);
+	}
+
+	/**
+	 * Queue r, ahead of the requests of other transactions if it is an
+	 * upgrade, since those cannot be granted before it anyway.
+	 */
+	private static void enqueue(LockQueue queue, Request r) {
+		if (!r.isUpgrade(queue)) {
+			queue.waiting.addLast(r);
+			return;
 		}
+		ListIterator<Request> it = queue.waiting.listIterator();
+		while (it.hasNext()) {
+			if (!it.next().isUpgrade(queue)) {
+				it.previous();
+				break;
+			}
+		}
+		it.add(r);
+	}
+
+	/**
+	 * Search the waits-for graph for a cycle through start, following only
+	 * requests in latched stripes, whose latches the caller holds. The
+	 * stripes of the other requests the search reaches are added to missing.
+	 *
+	 * @return the transactions of the cycle, or null if the latched stripes
+	 * hold none
+	 */
+	private List<TransactionId> findCycle(TransactionId start, Set<Stripe> latched, Set<Stripe> missing) {
+		return findCycle(start, start, new ArrayList<>(), new HashSet<>(), latched, missing);
+	}
+
+	private List<TransactionId> findCycle(TransactionId start, TransactionId tid, List<TransactionId> path,
+			Set<TransactionId> visited, Set<Stripe> latched, Set<Stripe> missing) {
+		Request r = waiting.get(tid);
+		if (r == null || !visited.add(tid))
+			return null;
+		if (!latched.contains(r.queue.stripe)) {
+			missing.add(r.queue.stripe);
+			return null;
+		}
+		path.add(tid);
+		for (TransactionId next : r.blockers()) {
+			if (next.equals(start))
+				return path;
+			if (findCycle(start, next, path, visited, latched, missing) != null)
+				return path;
+		}
+		path.remove(path.size() - 1);
+		return null;
+	}
+
+	/**
+	 * Abort the youngest transaction of any deadlock r has just entered; a
+	 * victim waits no longer and aborts, which may be the transaction of r.
+	 * <p>
+	 * Only the stripes of the requests the search reaches are latched. It
+	 * starts with the stripe of r, and starts over with more stripes when it
+	 * reaches requests in others. A transaction that starts to wait in a
+	 * stripe the search did not latch runs a search of its own afterwards,
+	 * which finds r waiting.
+	 */
+	private void breakDeadlock(Request r) {
+		SortedSet<Stripe> latched = new TreeSet<>(Comparator.comparingInt((Stripe s) -> s.index));
+		latched.add(r.queue.stripe);
+		while (true) {
+			Set<Stripe> missing = new HashSet<>();
+			latch(latched);
+			try {
+				List<TransactionId> cycle;
+				while (!r.granted && !r.aborted && (cycle = findCycle(r.tid, latched, missing)) != null) {
+					deadlocks.incrementAndGet();
+					TransactionId victim = r.tid;
+					for (TransactionId t : cycle)
+						if (t.getId() > victim.getId())
+							victim = t;
+					// the victim may have been in more than one cycle through r.
+					abortWaiter(victim);
+					missing.clear();
+				}
+				if (r.granted || r.aborted || missing.isEmpty())
+					return;
+			} finally {
+				unlatch(latched);
+			}
+			latched.addAll(missing);
+		}
+	}
 
+	/**
+	 * Make tid abort, at once if it waits for a lock and otherwise on its
+	 * next request. tid is marked first, so that a request it makes after
+	 * the lookup here sees the mark before it waits. A tid that neither
+	 * holds nor waits for locks blocks nobody, and is not marked: release
+	 * removes the locks of tid before its mark, so that the mark cannot
+	 * outlive the transaction.
+	 */
+	void wound(TransactionId tid) {
+		wounded.add(tid);
+		if (!trans2lock.containsKey(tid) && !waiting.containsKey(tid)) {
+			wounded.remove(tid);
+			return;
+		}
+		Request r = waiting.get(tid);
+		if (r == null)
+			return;
+		Stripe stripe = r.queue.stripe;
+		stripe.latch.lock();
 		try {
-			synchronizer.wait(NAP_TIME);
-		} catch (InterruptedException e) {
+			if (waiting.get(tid) == r && !r.granted && !r.aborted)
+				abortWaiter(tid);
+		} finally {
+			stripe.latch.unlock();
 		}
 	}
 
+	/**
+	 * Take the request tid waits on out of its queue, and wake tid up to
+	 * abort.
+	 */
+	private void abortWaiter(TransactionId tid) {
+		Request r = waiting.remove(tid);
+		r.aborted = true;
+		r.queue.waiting.remove(r);
+		r.ready.signal();
+		grantWaiters(r.queue);
+	}
+
+	/**
+	 * Apply WAIT_DIE or WOUND_WAIT to the queue r has just joined. An
+	 * upgrade joins ahead of other requests, so their waits are checked
+	 * again as well. The caller holds the latch of the queue; the younger
+	 * transactions to wound are added to wounds, for the caller to wound
+	 * once it has let go of the latch.
+	 *
+	 * @return whether the transaction of r must abort instead of waiting
+	 */
+	private boolean mustAbort(Request r, Policy policy, List<TransactionId> wounds) {
+		if (policy == Policy.NO_WAIT)
+			return true;
 
+		LockQueue queue = r.queue;
+		for (Request w : new ArrayList<>(queue.waiting)) {
+			if (w.aborted)
+				continue;
+			for (TransactionId blocker : w.blockers()) {
+				boolean older = blocker.getId() < w.tid.getId();
+				if (policy == Policy.WAIT_DIE && older) {
+					if (w == r)
+						return true;
+					abortWaiter(w.tid);
+					break;
+				} else if (policy == Policy.WOUND_WAIT && !older) {
+					if (blocker.equals(r.tid))
+						return true;
+					wounds.add(blocker);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of deadlocks broken so far.
+	 */
+	int getDeadlocks() {
+		return deadlocks.get();
+	}
+
+	/**
+	 * @return whether tid has been wounded, and not released since.
+	 */
+	boolean isWounded(TransactionId tid) {
+		return wounded.contains(tid);
+	}
+
+	/**
+	 * Lock pid for tid, waiting until the lock is compatible with the locks
+	 * of other transactions. The table of pid is locked first, for intention
+	 * to read or write; no page lock is needed if tid holds a lock on the
+	 * table that covers the access.
+	 *
+	 * @throws TransactionAbortedException if the policy aborts tid rather
+	 *                                     than letting it wait
+	 */
 	public void acquireLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-		if (!trans2lock.containsKey(tid))
-			trans2lock.put(tid, new ArrayList<>());
+		if (wounded.contains(tid))
+			throw new TransactionAbortedException();
+		LockType type = typeOf(perm);
+		Table table = new Table(pid.getTableId());
+		acquire(tid, table, perm == Permissions.READ_ONLY
+				? LockType.INTENTION_SHARED : LockType.INTENTION_EXCLUSIVE);
+		Lock held = heldLock(tid, pid);
+		if (covers(heldLock(tid, table).type, type) && (held == null || held.implied)) {
+			if (held == null || !covers(held.type, type))
+				addLock(tid, new Lock(tid, pid, pid, type, true));
+			return;
+		}
+		acquire(tid, pid, type);
+		escalateIfNeeded(tid, table);
+	}
+
+	/**
+	 * Lock the record rid for tid, beneath intention locks on its page and
+	 * table, waiting like {@link #acquireLock}. No record lock is needed if
+	 * tid holds a lock on the page or table that covers the access.
+	 *
+	 * @throws TransactionAbortedException if the policy aborts tid rather
+	 *                                     than letting it wait
+	 */
+	public void acquireRecordLock(TransactionId tid, RecordId rid, Permissions perm)
+			throws TransactionAbortedException {
+		if (wounded.contains(tid))
+			throw new TransactionAbortedException();
+		LockType intention = perm == Permissions.READ_ONLY
+				? LockType.INTENTION_SHARED : LockType.INTENTION_EXCLUSIVE;
+		PageId pid = rid.getPageId();
+		Table table = new Table(pid.getTableId());
+		acquire(tid, table, intention);
+		if (coversPage(tid, pid, perm))
+			return;
+		acquire(tid, pid, intention);
+		if (coversPage(tid, pid, perm))
+			return;
+		acquire(tid, rid, typeOf(perm));
+		escalateIfNeeded(tid, table);
+	}
+
+	/**
+	 * Lock the record rid for tid like {@link #acquireRecordLock}, but only
+	 * if the locks on the record, its page and its table can be granted at
+	 * once.
+	 *
+	 * @return whether the lock was granted; never waits.
+	 */
+	public boolean tryAcquireRecordLock(TransactionId tid, RecordId rid, Permissions perm) {
+		if (wounded.contains(tid))
+			return false;
+		LockType intention = perm == Permissions.READ_ONLY
+				? LockType.INTENTION_SHARED : LockType.INTENTION_EXCLUSIVE;
+		PageId pid = rid.getPageId();
+		Table table = new Table(pid.getTableId());
+		// the intention locks taken here are given back if the record is busy.
+		boolean hadTable = heldLock(tid, table) != null;
+		if (!tryAcquire(tid, table, intention))
+			return false;
+		if (coversPage(tid, pid, perm))
+			return true;
+		boolean hadPage = heldLock(tid, pid) != null;
+		if (tryAcquire(tid, pid, intention)
+				&& (coversPage(tid, pid, perm) || tryAcquire(tid, rid, typeOf(perm))))
+			return true;
+		if (!hadPage)
+			releaseKey(tid, pid);
+		if (!hadTable)
+			releaseKey(tid, table);
+		return false;
+	}
+
+	/**
+	 * @return whether the locks of tid on pid or its table cover all the
+	 * records of the page for perm, so that it needs no record locks.
+	 */
+	public boolean coversPage(TransactionId tid, PageId pid, Permissions perm) {
+		LockType type = typeOf(perm);
+		Lock table = heldLock(tid, new Table(pid.getTableId()));
+		if (table != null && covers(table.type, type))
+			return true;
+		Lock page = heldLock(tid, pid);
+		return page != null && covers(page.type, type);
+	}
+
+	/**
+	 * Escalate the locks of tid below table if there are too many.
+	 */
+	private void escalateIfNeeded(TransactionId tid, Table table) {
+		Lock tableLock = heldLock(tid, table);
+		int count = tableLock.pageLocks;
+		int threshold = escalationThreshold;
+		int max = maxPageLocks;
+		if (((threshold > 0 && count > threshold) || (max > 0 && pageLocks.get() > max))
+				&& count >= tableLock.retryEscalationAt)
+			escalate(tid, table, tableLock);
+	}
 
-		Lock lock;
-		long start = System.currentTimeMillis();
+	/**
+	 * Replace the page and record locks of tid on table by a lock on the
+	 * whole table, if that can be granted at once; they stay in the set of
+	 * tid as implied locks.
+	 */
+	private void escalate(TransactionId tid, Table table, Lock tableLock) {
+		LockType mode = covers(tableLock.type, LockType.INTENTION_EXCLUSIVE)
+				? LockType.EXCLUSIVE : LockType.SHARED;
+		if (!tryAcquire(tid, table, mode)) {
+			tableLock.retryEscalationAt = 2 * tableLock.pageLocks;
+			return;
+		}
+		escalations.incrementAndGet();
+		if (stats != null)
+			stats.escalated();
+
+		List<Lock> converted = new ArrayList<>();
+		trans2lock.computeIfPresent(tid, (t, locks) -> {
+			for (Map.Entry<Object, Lock> e : locks.entrySet()) {
+				Lock l = e.getValue();
+				if (l.pid != null && !l.implied && l.pid.getTableId() == table.id) {
+					e.setValue(new Lock(tid, l.key, l.pid, l.type, true));
+					converted.add(l);
+				}
+			}
+			tableLock.pageLocks = 0;
+			pageLocks.addAndGet(-converted.size());
+			return locks;
+		});
+		for (Lock l : converted)
+			unlock(tid, l.key);
+	}
+
+	/**
+	 * @return the number of escalations so far.
+	 */
+	int getEscalations() {
+		return escalations.get();
+	}
 
-		if (perm == Permissions.READ_ONLY) {
-			if (!page2read.containsKey(pid))
-				page2read.put(pid, new ArrayList<>());
-			if (!page2write.containsKey(pid))
-				page2write.put(pid, new ArrayList<>());
+	/**
+	 * @return the number of page locks in queues.
+	 */
+	int getPageLocks() {
+		return pageLocks.get();
+	}
 
-			while (!page2write.get(pid).isEmpty() && page2write.get(pid).get(0).tid != tid)
-				nap_mayAbort(start);
+	/**
+	 * Lock the whole table tableId for tid, e.g. SHARED for a scan or
+	 * EXCLUSIVE for a bulk load, so that its pages need no locks of their
+	 * own. Waits like {@link #acquireLock}.
+	 *
+	 * @throws TransactionAbortedException if the policy aborts tid rather
+	 *                                     than letting it wait
+	 */
+	public void acquireTableLock(TransactionId tid, int tableId, LockType type) throws TransactionAbortedException {
+		if (wounded.contains(tid))
+			throw new TransactionAbortedException();
+		acquire(tid, new Table(tableId), type);
+	}
 
-			lock = new Lock(tid, pid, LockType.SHARED);
-			page2read.get(pid).add(lock);
+	/**
+	 * Lock the page or Table key for tid, or upgrade its lock so that it
+	 * covers type.
+	 */
+	private void acquire(TransactionId tid, Object key, LockType type) throws TransactionAbortedException {
+		Lock mine = heldLock(tid, key);
+		if (mine != null && covers(mine.type, type))
+			return;
+		Policy policy = this.policy;
+		Stripe stripe = stripeOf(key);
+		Request r;
+		stripe.latch.lock();
+		try {
+			LockQueue queue = stripe.queue(key);
+			LockType want = wanted(queue, tid, type);
+			if (want == null)
+				return;
+			boolean upgrade = queue.granted.containsKey(tid);
+			if ((upgrade || queue.waiting.isEmpty()) && queue.compatible(tid, want)) {
+				grant(queue, tid, want);
+				return;
+			}
+			if (policy == Policy.NO_WAIT) {
+				if (queue.granted.isEmpty() && queue.waiting.isEmpty())
+					stripe.queues.remove(key);
+				throw new TransactionAbortedException();
+			}
+			r = new Request(tid, want, queue);
+			enqueue(queue, r);
+			waiting.put(tid, r);
+		} finally {
+			stripe.latch.unlock();
+		}
 
+		// r may have been granted or aborted while no latch was held.
+		if (policy == Policy.DETECT) {
+			breakDeadlock(r);
 		} else {
-			if (!page2write.containsKey(pid))
-				page2write.put(pid, new ArrayList<>());
-			if (!page2read.containsKey(pid))
-				page2read.put(pid, new ArrayList<>());
-//
-			while (true) {
-				boolean otherWrite = (!page2write.get(pid).isEmpty() && page2write.get(pid).get(0).tid != tid);
-				boolean otherRead = false;
-				for (Lock l : page2read.get(pid))
-					if (l.tid != tid)
-						otherRead = true;
-				if (!otherWrite && !otherRead)
-					break;
+			List<TransactionId> wounds = new ArrayList<>();
+			stripe.latch.lock();
+			try {
+				if (!r.granted && !r.aborted && mustAbort(r, policy, wounds))
+					abortWaiter(tid);
+			} finally {
+				stripe.latch.unlock();
+			}
+			for (TransactionId t : wounds)
+				wound(t);
+		}
 
-				nap_mayAbort(start);
+		stripe.latch.lock();
+		try {
+			while (!r.granted) {
+				if (r.aborted || wounded.contains(tid))
+					throw new TransactionAbortedException();
+				try {
+					r.ready.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		} finally {
+			if (!r.granted && !r.aborted) {
+				// the requests behind r may be grantable now.
+				waiting.remove(tid, r);
+				r.queue.waiting.remove(r);
+				grantWaiters(r.queue);
 			}
+			stripe.latch.unlock();
+		}
+	}
 
+	/**
+	 * Take a shared lock on pid only if no other transaction writes it or
+	 * its table, or waits for them.
+	 *
+	 * @return whether the lock was granted; never waits.
+	 */
+	public boolean tryAcquireSharedLock(TransactionId tid, PageId pid) {
+		Table table = new Table(pid.getTableId());
+		if (!tryAcquire(tid, table, LockType.INTENTION_SHARED))
+			return false;
+		if (covers(heldLock(tid, table).type, LockType.SHARED))
+			return true;
+		return tryAcquire(tid, pid, LockType.SHARED);
+	}
+
+	/**
+	 * Lock pid for tid like {@link #acquireLock}, but only if the locks on
+	 * the page and its table can be granted at once.
+	 *
+	 * @return whether the lock was granted; never waits.
+	 */
+	public boolean tryAcquireLock(TransactionId tid, PageId pid, Permissions perm) {
+		if (wounded.contains(tid))
+			return false;
+		LockType type = typeOf(perm);
+		Table table = new Table(pid.getTableId());
+		boolean hadTable = heldLock(tid, table) != null;
+		if (!tryAcquire(tid, table, perm == Permissions.READ_ONLY
+				? LockType.INTENTION_SHARED : LockType.INTENTION_EXCLUSIVE))
+			return false;
+		Lock held = heldLock(tid, pid);
+		if (covers(heldLock(tid, table).type, type) && (held == null || held.implied)) {
+			if (held == null || !covers(held.type, type))
+				addLock(tid, new Lock(tid, pid, pid, type, true));
+			return true;
+		}
+		if (tryAcquire(tid, pid, type))
+			return true;
+		// the intention lock taken for the page is given back.
+		if (!hadTable)
+			releaseKey(tid, table);
+		return false;
+	}
 
-			lock = new Lock(tid, pid, LockType.EXCLUSIVE);
-			page2write.get(pid).add(lock);
+	private boolean tryAcquire(TransactionId tid, Object key, LockType type) {
+		Stripe stripe = stripeOf(key);
+		stripe.latch.lock();
+		try {
+			LockQueue queue = stripe.queue(key);
+			LockType want = wanted(queue, tid, type);
+			if (want == null)
+				return true;
+			boolean upgrade = queue.granted.containsKey(tid);
+			if ((upgrade || queue.waiting.isEmpty()) && queue.compatible(tid, want)) {
+				grant(queue, tid, want);
+				return true;
+			}
+			if (queue.granted.isEmpty() && queue.waiting.isEmpty())
+				stripe.queues.remove(key);
+			return false;
+		} finally {
+			stripe.latch.unlock();
 		}
-		trans2lock.get(tid).add(lock);
 	}
 
+	/**
+	 * Drop the lock of tid on the page of queue and pass the page on.
+	 */
+	private void unlock(LockQueue queue, TransactionId tid) {
+		queue.granted.remove(tid);
+		grantWaiters(queue);
+	}
+
+	/**
+	 * Release the lock of tid on pid. Its table stays locked.
+	 */
 	public void release(TransactionId tid, PageId pid) {
-		trans2lock.getOrDefault(tid, new LinkedList<>()).removeIf(lock -> lock.pid == pid);
-		page2write.getOrDefault(pid, new LinkedList<>()).removeIf(lock -> lock.tid == tid);
-		page2read.getOrDefault(pid, new LinkedList<>()).removeIf(lock -> lock.tid == tid);
+		releaseKey(tid, pid);
+	}
 
-		synchronizer.notifyAll();
+	/**
+	 * Release the lock of tid on the page, record or Table key, but not the
+	 * locks beneath it.
+	 */
+	private void releaseKey(TransactionId tid, Object key) {
+		Lock[] released = new Lock[1];
+		trans2lock.computeIfPresent(tid, (t, locks) -> {
+			released[0] = locks.remove(key);
+			if (released[0] != null && released[0].pid != null && !released[0].implied)
+				countPageLocks(locks, released[0].pid, -1);
+			return locks.isEmpty() ? null : locks;
+		});
+		if (released[0] != null && !released[0].implied)
+			unlock(tid, key);
 	}
 
-	public void release(TransactionId tid) {
-		if (trans2lock.containsKey(tid)) {
-			List<Lock> locks = trans2lock.get(tid);
-			for (Lock l : locks) {
-				PageId pageId = l.pid;
-				page2write.get(pageId).removeIf(lock -> lock.tid == tid);
-				page2read.get(pageId).removeIf(lock -> lock.tid == tid);
-			}
-			locks.clear();
-			trans2lock.remove(tid);
+	private void unlock(TransactionId tid, Object key) {
+		Stripe stripe = stripeOf(key);
+		stripe.latch.lock();
+		try {
+			LockQueue queue = stripe.queues.get(key);
+			if (queue != null)
+				unlock(queue, tid);
+		} finally {
+			stripe.latch.unlock();
 		}
+	}
 
-		synchronizer.notifyAll();
+	public void release(TransactionId tid) {
+		Map<Object, Lock> locks = trans2lock.remove(tid);
+		wounded.remove(tid);
+		if (locks == null)
+			return;
+		for (Lock lock : locks.values()) {
+			if (lock.implied)
+				continue;
+			if (lock.pid != null)
+				pageLocks.decrementAndGet();
+			unlock(tid, lock.key);
+		}
 	}
 
+	/**
+	 * @return whether tid has locked pid, or its whole table for reading.
+	 */
 	public boolean holdsLock(TransactionId tid, PageId pid) {
-		for (Lock lock : trans2lock.get(tid))
-			if (lock.pid == pid) return true;
-		return false;
+		if (heldLock(tid, pid) != null)
+			return true;
+		Lock table = heldLock(tid, new Table(pid.getTableId()));
+		return table != null && covers(table.type, LockType.SHARED);
+	}
+
+	/**
+	 * @return the mode in which tid holds the table tableId, or null.
+	 */
+	public LockType getTableLock(TransactionId tid, int tableId) {
+		Lock table = heldLock(tid, new Table(tableId));
+		return table == null ? null : table.type;
 	}
 }
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha). A page seen for the first time goes to
+ * the FIFO queue A1in. When it is evicted from there its id is remembered on
+ * the ghost queue A1out; only a page that is requested again while its id is
+ * still on A1out is admitted to the main LRU queue Am. Pages touched once by a
+ * scan therefore never reach Am.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+
+	private int kin;
+	private int kout;
+
+	private final LinkedHashMap<PageId, Boolean> a1in = new LinkedHashMap<>();
+	private final LinkedHashMap<PageId, Boolean> a1out = new LinkedHashMap<>();
+	private final LinkedHashMap<PageId, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Create a 2Q policy for a pool of numPages frames, using the tuning from
+	 * the paper: A1in holds a quarter of the frames, A1out remembers half as
+	 * many ids as there are frames.
+	 */
+	public TwoQPolicy(int numPages) {
+		this(Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+	}
+
+	public TwoQPolicy(int kin, int kout) {
+		this.kin = kin;
+		this.kout = kout;
+	}
+
+	@Override
+	public void resize(int numPages) {
+		kin = Math.max(1, numPages / 4);
+		kout = Math.max(1, numPages / 2);
+		trimGhosts();
+	}
+
+	@Override
+	public void admit(PageId pid) {
+		if (a1in.containsKey(pid) || am.containsKey(pid)) {
+			access(pid);
+			return;
+		}
+		if (a1out.remove(pid) != null)
+			am.put(pid, Boolean.TRUE);
+		else
+			a1in.put(pid, Boolean.TRUE);
+	}
+
+	@Override
+	public void access(PageId pid) {
+		// a hit in A1in is most likely correlated with the first reference,
+		// so only hits in Am refresh the recency order.
+		if (am.containsKey(pid))
+			am.put(pid, Boolean.TRUE);
+	}
+
+	@Override
+	public void remove(PageId pid) {
+		if (a1in.remove(pid) != null) {
+			a1out.put(pid, Boolean.TRUE);
+			trimGhosts();
+		} else {
+			am.remove(pid);
+		}
+	}
+
+	private void trimGhosts() {
+		Iterator<PageId> it = a1out.keySet().iterator();
+		while (a1out.size() > kout) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	@Override
+	public PageId victim(Predicate<PageId> evictable) {
+		LinkedHashMap<PageId, Boolean> first = a1in.size() > kin || am.isEmpty() ? a1in : am;
+		LinkedHashMap<PageId, Boolean> second = first == a1in ? am : a1in;
+		for (PageId pid : first.keySet())
+			if (evictable.test(pid))
+				return pid;
+		for (PageId pid : second.keySet())
+			if (evictable.test(pid))
+				return pid;
+		return null;
+	}
+
+	@Override
+	public int size() {
+		return a1in.size() + am.size();
+	}
+}
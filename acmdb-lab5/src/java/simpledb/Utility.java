@@ -130,9 +130,13 @@ public class Utility {
      * @return the opened table.
      */
     public static HeapFile openHeapFile(int cols, File f) {
+        return openHeapFile(cols, f, BufferPool.getPageSize());
+    }
+
+    public static HeapFile openHeapFile(int cols, File f, int pageSize) {
         // create the HeapFile and add it to the catalog
     	TupleDesc td = getTupleDesc(cols);
-        HeapFile hf = new HeapFile(f, td);
+        HeapFile hf = new HeapFile(f, td, pageSize);
         Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
         return hf;
     }
@@ -0,0 +1,313 @@
+package simpledb;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * VersionStore keeps the committed versions of pages that running snapshot
+ * transactions may still read, for multi-version reads in the BufferPool.
+ * <p>
+ * Commits are numbered in order. A snapshot transaction reads every page as
+ * of the last commit before it began: the before image of the page in the
+ * pool, unless a later commit replaced that image, in which case the version
+ * it replaced was kept here, stamped with the number of the replacing
+ * commit. Versions are only kept while a snapshot that may need them runs;
+ * without snapshots a commit keeps none.
+ * <p>
+ * A page written to disk before its writer's commit is published, by a
+ * commit in progress or by eviction in STEAL mode, may be read back with
+ * unpublished contents. Until the writer completes, the page object that
+ * was written is stashed, and its before image read instead.
+ * <p>
+ * Optimistic transactions read the last commit of each page instead, write
+ * private copies, and are validated when they commit: none of the pages
+ * they read may have been written by a later commit, or be about to be.
+ * To tell, the number of the last commit writing each page is kept while
+ * optimistic transactions run.
+ */
+class VersionStore {
+	/**
+	 * guards the commit counter and the snapshots, so that a snapshot never
+	 * sees part of a commit.
+	 */
+	private final Object commitLock = new Object();
+	/**
+	 * the number of the last commit whose pages are all published.
+	 */
+	private volatile long committed = 0;
+	private final Map<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+	/**
+	 * the number of running snapshots by the commit they read.
+	 */
+	private final TreeMap<Long, Integer> horizons = new TreeMap<>();
+	/**
+	 * the replaced versions of each page by the number of the commit that
+	 * replaced them.
+	 */
+	private final Map<PageId, ConcurrentSkipListMap<Long, Page>> versions = new ConcurrentHashMap<>();
+	/**
+	 * pages whose copy on disk may not be published, by id; their before
+	 * images are.
+	 */
+	private final Map<PageId, Page> stashed = new ConcurrentHashMap<>();
+	/**
+	 * the number of times aborts dropped stashed pages, after which a page
+	 * read back may be published again.
+	 */
+	private final AtomicLong unstashes = new AtomicLong();
+	private final Map<TransactionId, Workspace> workspaces = new ConcurrentHashMap<>();
+	/**
+	 * the number of running optimistic transactions by the commit they began
+	 * after.
+	 */
+	private final TreeMap<Long, Integer> optimists = new TreeMap<>();
+	/**
+	 * the number of the last commit writing each page, unless the oldest
+	 * running optimistic transaction began after it.
+	 */
+	private final Map<PageId, Long> lastWritten = new HashMap<>();
+	/**
+	 * the pages validated optimistic transactions are about to commit.
+	 */
+	private final Map<PageId, TransactionId> installing = new HashMap<>();
+
+	/**
+	 * The read and write sets of an optimistic transaction: the commit as of
+	 * which it first read each page, and the private copies of the pages it
+	 * writes, which reach the pool once it is validated.
+	 */
+	static class Workspace {
+		final long begun;
+		final Map<PageId, Long> reads = new ConcurrentHashMap<>();
+		final Map<PageId, Page> writes = new ConcurrentHashMap<>();
+		volatile boolean validated = false;
+
+		Workspace(long begun) {
+			this.begun = begun;
+		}
+	}
+
+	/**
+	 * Start a snapshot for tid, reading the pages as of the last commit.
+	 */
+	void begin(TransactionId tid) {
+		synchronized (commitLock) {
+			if (snapshots.containsKey(tid))
+				return;
+			snapshots.put(tid, committed);
+			horizons.merge(committed, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * @return the commit the snapshot of tid reads, or null if tid runs no
+	 * snapshot.
+	 */
+	Long snapshotOf(TransactionId tid) {
+		return snapshots.isEmpty() ? null : snapshots.get(tid);
+	}
+
+	/**
+	 * Start tid as an optimistic transaction.
+	 */
+	void beginOptimistic(TransactionId tid) {
+		synchronized (commitLock) {
+			if (workspaces.containsKey(tid))
+				return;
+			workspaces.put(tid, new Workspace(committed));
+			optimists.merge(committed, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * @return the workspace of tid, or null if tid is not optimistic.
+	 */
+	Workspace workspaceOf(TransactionId tid) {
+		return workspaces.isEmpty() ? null : workspaces.get(tid);
+	}
+
+	/**
+	 * @return the number of the last commit whose pages are all published.
+	 */
+	long committed() {
+		return committed;
+	}
+
+	/**
+	 * Validate the optimistic transaction tid, and lock the pages it writes
+	 * with lock, which must not wait. Once validated, no other transaction
+	 * validates against the pages until tid ends. The caller marks ws
+	 * validated once it has installed the pages.
+	 *
+	 * @return whether tid may commit; if not, it must abort, and give back
+	 * the locks it may have taken.
+	 */
+	boolean validate(TransactionId tid, Workspace ws, Predicate<PageId> lock) {
+		synchronized (commitLock) {
+			for (Map.Entry<PageId, Long> read : ws.reads.entrySet()) {
+				Long written = lastWritten.get(read.getKey());
+				if (written != null && written > read.getValue())
+					return false;
+				TransactionId other = installing.get(read.getKey());
+				if (other != null && !other.equals(tid))
+					return false;
+			}
+			// a commit must not come between validation and the locks.
+			for (PageId pid : ws.writes.keySet())
+				if (!lock.test(pid))
+					return false;
+			for (PageId pid : ws.writes.keySet())
+				installing.put(pid, tid);
+			return true;
+		}
+	}
+
+	/**
+	 * End the snapshot or optimistic run of tid, if any, and drop what no
+	 * running transaction needs any more.
+	 */
+	void end(TransactionId tid) {
+		synchronized (commitLock) {
+			endSnapshot(tid);
+			endOptimistic(tid);
+		}
+	}
+
+	private void endSnapshot(TransactionId tid) {
+		Long snapshot = snapshots.remove(tid);
+		if (snapshot == null)
+			return;
+		if (horizons.merge(snapshot, -1, Integer::sum) == 0)
+			horizons.remove(snapshot);
+		if (horizons.isEmpty()) {
+			versions.clear();
+			return;
+		}
+		// a snapshot reading commit s needs the versions replaced after s.
+		long oldest = horizons.firstKey();
+		versions.values().removeIf(chain -> {
+			chain.headMap(oldest, true).clear();
+			return chain.isEmpty();
+		});
+	}
+
+	private void endOptimistic(TransactionId tid) {
+		Workspace ws = workspaces.remove(tid);
+		if (ws == null)
+			return;
+		// tid may have claimed the pages, even if installing them failed.
+		for (PageId pid : ws.writes.keySet())
+			installing.remove(pid, tid);
+		if (optimists.merge(ws.begun, -1, Integer::sum) == 0)
+			optimists.remove(ws.begun);
+		if (optimists.isEmpty()) {
+			lastWritten.clear();
+			return;
+		}
+		// every page was read as of a commit no older than its reader.
+		long oldest = optimists.firstKey();
+		lastWritten.values().removeIf(number -> number <= oldest);
+	}
+
+	/**
+	 * Note that page may reach disk before its writer's commit is published.
+	 */
+	void stash(Page page) {
+		stashed.putIfAbsent(page.getId(), page);
+	}
+
+	/**
+	 * Forget the stashed pages among pids, once an abort has restored them.
+	 */
+	void unstash(Collection<PageId> pids) {
+		boolean removed = false;
+		for (PageId pid : pids)
+			removed |= stashed.remove(pid) != null;
+		if (removed)
+			unstashes.incrementAndGet();
+	}
+
+	/**
+	 * Publish the pages a transaction has written as the committed versions,
+	 * keeping the versions they replace for the running snapshots.
+	 *
+	 * @param written the pages written, with their resident copies or null
+	 */
+	void commit(Map<PageId, Page> written) {
+		synchronized (commitLock) {
+			long number = committed + 1;
+			boolean keep = !horizons.isEmpty();
+			boolean track = !optimists.isEmpty();
+			for (Map.Entry<PageId, Page> e : written.entrySet()) {
+				Page page = e.getValue();
+				Page published = stashed.get(e.getKey());
+				if (published == null)
+					published = page;
+				// kept before the page changes, for readers looking without the lock.
+				if (keep && published != null)
+					versions.computeIfAbsent(e.getKey(), pid -> new ConcurrentSkipListMap<>())
+							.put(number, published.getBeforeImage());
+				if (page != null)
+					page.setBeforeImage();
+				if (track)
+					lastWritten.put(e.getKey(), number);
+			}
+			committed = number;
+			for (PageId pid : written.keySet())
+				stashed.remove(pid);
+		}
+	}
+
+	/**
+	 * @return a number that changes whenever a page read back from disk may
+	 * have become published again.
+	 */
+	long epoch() {
+		return unstashes.get();
+	}
+
+	/**
+	 * @return the version of pid a snapshot of commit snapshot reads, or
+	 * null if that is the before image of the page in the pool or on disk.
+	 * Whoever takes that image must call again, and compare the epoch,
+	 * since a commit may replace it meanwhile.
+	 */
+	Page read(PageId pid, long snapshot) {
+		Page version = replaced(pid, snapshot);
+		if (version != null)
+			return version;
+		Page published = stashed.get(pid);
+		if (published == null)
+			return null;
+		Page image = published.getBeforeImage();
+		version = replaced(pid, snapshot);
+		return version != null ? version : image;
+	}
+
+	/**
+	 * @return the version of pid replaced after commit snapshot, or null.
+	 */
+	private Page replaced(PageId pid, long snapshot) {
+		ConcurrentSkipListMap<Long, Page> chain = versions.get(pid);
+		if (chain == null)
+			return null;
+		Map.Entry<Long, Page> version = chain.higherEntry(snapshot);
+		return version == null ? null : version.getValue();
+	}
+
+	/**
+	 * @return the number of versions kept.
+	 */
+	int size() {
+		int size = 0;
+		for (ConcurrentSkipListMap<Long, Page> chain : versions.values())
+			size += chain.size();
+		return size;
+	}
+}
@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import simpledb.Predicate.Op;
+import simpledb.BTreeUtility.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests that descents of a BTreeFile only keep the leaf locked.
+ */
+public class BTreeLockCouplingTest extends SimpleDbTestBase {
+	private static final int POLL_INTERVAL = 100;
+	private static final int TIMEOUT = 10000;
+
+	private BufferPool bp;
+	private BTreeFile bf;
+	private BTreePageId rootPtrId;
+	private BTreePageId rootId;
+
+	/**
+	 * Set up a packed B+ tree with 100 leaves below an internal root.
+	 */
+	@Before public void setUp() throws Exception {
+		bf = BTreeUtility.createRandomBTreeFile(2, 50200, null, null, 0);
+		// building the tree leaves its pages locked.
+		bp = Database.resetBufferPool(500);
+		rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		TransactionId tid = new TransactionId();
+		rootId = ((BTreeRootPtrPage) bp.getPage(tid, rootPtrId, Permissions.READ_ONLY)).getRootId();
+		bp.transactionComplete(tid);
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+	}
+
+	/**
+	 * @return the first tuple with key, read in a transaction of its own.
+	 */
+	private Tuple find(int key) throws Exception {
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(key)));
+		it.open();
+		Tuple t = it.next();
+		it.close();
+		bp.transactionComplete(tid);
+		return t;
+	}
+
+	private boolean await(BTreeWriter writer) throws Exception {
+		for (long waited = 0; waited < TIMEOUT && !writer.succeeded(); waited += POLL_INTERVAL) {
+			assertNull(writer.getError());
+			Thread.sleep(POLL_INTERVAL);
+		}
+		return writer.succeeded();
+	}
+
+	/**
+	 * A search keeps its leaf locked, but not the pages above it.
+	 */
+	@Test public void searchLocksLeafOnly() throws Exception {
+		Tuple t = find(0);
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, t.getField(0)));
+		it.open();
+		assertTrue(it.hasNext());
+		assertTrue(bp.holdsLock(tid, t.getRecordId().getPageId()));
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+		assertFalse(bp.holdsLock(tid, rootId));
+		it.close();
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * An insert that does not split keeps only its leaf locked.
+	 */
+	@Test public void insertLocksLeafOnly() throws Exception {
+		Tuple t = find(BTreeUtility.MAX_RAND_VALUE / 2);
+		TransactionId tid = new TransactionId();
+		bp.deleteTuple(tid, t);
+		bp.transactionComplete(tid);
+
+		tid = new TransactionId();
+		Tuple copy = BTreeUtility.getBTreeTuple(((IntField) t.getField(0)).getValue(), 2);
+		bp.insertTuple(tid, bf.getId(), copy);
+		assertTrue(bp.holdsLock(tid, copy.getRecordId().getPageId()));
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+		assertFalse(bp.holdsLock(tid, rootId));
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * A reader of one leaf does not hold up the split of another, which
+	 * needs the root.
+	 */
+	@Test public void readerDoesNotBlockSplit() throws Exception {
+		Tuple first = find(0);
+		TransactionId reader = new TransactionId();
+		DbFileIterator it = bf.indexIterator(reader, new IndexPredicate(Op.EQUALS, first.getField(0)));
+		it.open();
+		assertTrue(it.hasNext());
+
+		// the right-most leaf is full, so the insert splits it.
+		TransactionId tid = new TransactionId();
+		BTreeWriter writer = new BTreeWriter(tid, bf, BTreeUtility.MAX_RAND_VALUE, 1);
+		writer.start();
+		assertTrue(await(writer));
+		assertTrue(bp.holdsLock(tid, rootId));
+		bp.transactionComplete(tid);
+
+		it.close();
+		bp.transactionComplete(reader);
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), false);
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * Writers splitting leaves all over the tree neither deadlock nor lose
+	 * tuples.
+	 */
+	@Test public void concurrentSplits() throws Exception {
+		final int writers = 4;
+		final int inserts = 20;
+		Thread[] threads = new Thread[writers];
+		final Exception[] failure = new Exception[1];
+		for (int i = 0; i < writers; ++i) {
+			final int base = i * BTreeUtility.MAX_RAND_VALUE / writers;
+			threads[i] = new Thread(() -> {
+				try {
+					for (int j = 0; j < inserts; ) {
+						TransactionId tid = new TransactionId();
+						try {
+							bp.insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(base + j * 97, 2));
+							bp.transactionComplete(tid);
+							++j;
+						} catch (TransactionAbortedException e) {
+							bp.transactionComplete(tid, false);
+						}
+					}
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		if (failure[0] != null)
+			throw failure[0];
+
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			++count;
+		}
+		it.close();
+		assertEquals(50200 + writers * inserts, count);
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), false);
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLockCouplingTest.class);
+	}
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for bulk reads through a ring of frames.
+ */
+public class BufferAccessStrategyTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 20;
+    private static final int HOT_PAGES = 4;
+
+    private HeapFile hot;
+    private HeapFile big;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * POOL_PAGES * 2, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private void readHotPages(TransactionId tid) throws Exception {
+        for (int i = 0; i < HOT_PAGES; ++i) {
+            HeapPageId pid = new HeapPageId(hot.getId(), i);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+            bp.unpinPage(tid, pid);
+        }
+    }
+
+    /**
+     * Only files larger than the pool are read through a ring.
+     */
+    @Test public void ringForLargeFilesOnly() {
+        assertNull(BufferAccessStrategy.bulkRead(hot));
+        BufferAccessStrategy strategy = BufferAccessStrategy.bulkRead(big);
+        assertNotNull(strategy);
+        assertEquals(POOL_PAGES / 4, strategy.size());
+    }
+
+    /**
+     * A sequential scan of a table twice the size of the pool leaves the
+     * pages of other queries resident.
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        TransactionId tid = new TransactionId();
+        readHotPages(tid);
+        bp.transactionComplete(tid);
+
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), big.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++count;
+        }
+        scan.close();
+        t.commit();
+        assertEquals(504 * POOL_PAGES * 2, count);
+
+        String name = Database.getCatalog().getTableName(hot.getId());
+        long misses = bp.getStats().getTableMisses(name);
+        tid = new TransactionId();
+        readHotPages(tid);
+        bp.transactionComplete(tid);
+        assertEquals(misses, bp.getStats().getTableMisses(name));
+    }
+
+    /**
+     * An index range scan of a tree bigger than the pool leaves the pages of
+     * other queries resident too.
+     */
+    @Test public void indexRangeScanKeepsWorkingSet() throws Exception {
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, 502 * POOL_PAGES * 2, null, null, 0);
+        // building the tree leaves its pages locked.
+        bp = Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        readHotPages(tid);
+        bp.transactionComplete(tid);
+
+        Transaction t = new Transaction();
+        t.start();
+        BTreeScan scan = new BTreeScan(t.getId(), tree.getId(), "",
+                new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++count;
+        }
+        scan.close();
+        t.commit();
+        assertEquals(502 * POOL_PAGES * 2, count);
+
+        String name = Database.getCatalog().getTableName(hot.getId());
+        long misses = bp.getStats().getTableMisses(name);
+        tid = new TransactionId();
+        readHotPages(tid);
+        bp.transactionComplete(tid);
+        assertEquals(misses, bp.getStats().getTableMisses(name));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferAccessStrategyTest.class);
+    }
+}
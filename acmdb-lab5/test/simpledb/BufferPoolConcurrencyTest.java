@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Multi-threaded tests for BufferPool.getPage(): readers of different pages
+ * must all see the right pages while the pool evicts underneath them, and
+ * readers of a resident table must all make progress without misses.
+ */
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+    /** Number of pages in the test table; 504 tuples fit on a page. */
+    private static final int TABLE_PAGES = 64;
+    /** How long each run lasts, in ms */
+    private static final int RUN_MILLIS = 300;
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        assertEquals(TABLE_PAGES, table.numPages());
+    }
+
+    /**
+     * Reads random pages from several threads for a while.
+     *
+     * @return number of pages read by each thread
+     */
+    private long[] readConcurrently(int threads, final int millis) throws Exception {
+        final long[] reads = new long[threads];
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final long stop = System.currentTimeMillis() + millis;
+
+        Thread[] readers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            final int reader = i;
+            readers[i] = new Thread() {
+                public void run() {
+                    Random rand = new Random(reader);
+                    BufferPool bp = Database.getBufferPool();
+                    long count = 0;
+                    try {
+                        while (System.currentTimeMillis() < stop) {
+                            TransactionId tid = new TransactionId();
+                            for (int j = 0; j < 100; ++j) {
+                                HeapPageId pid = new HeapPageId(table.getId(), rand.nextInt(TABLE_PAGES));
+                                HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+                                assertEquals(pid, page.getId());
+                                assertEquals(0, page.getNumEmptySlots());
+                                bp.unpinPage(tid, pid);
+                                ++count;
+                            }
+                            bp.transactionComplete(tid);
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                    reads[reader] = count;
+                }
+            };
+        }
+        for (Thread t : readers)
+            t.start();
+        for (Thread t : readers)
+            t.join();
+
+        assertNull(error.get());
+        return reads;
+    }
+
+    private static long sum(long[] reads) {
+        long total = 0;
+        for (long r : reads)
+            total += r;
+        return total;
+    }
+
+    /**
+     * Readers on a pool much smaller than the table keep evicting each
+     * other's pages; every read must still return the requested page.
+     */
+    @Test public void concurrentReadsWithEviction() throws Exception {
+        Database.resetBufferPool(TABLE_PAGES / 4);
+        assertTrue(sum(readConcurrently(8, RUN_MILLIS)) > 0);
+    }
+
+    /**
+     * Readers of a pool that holds the whole table, with 1, 2, 4, ... and N
+     * threads, all make progress and only hit, and N threads read about as
+     * fast as one at least. Reads per second are reported for each number of
+     * threads; how far they scale depends on the machine, so the assertion
+     * is loose.
+     */
+    @Test public void residentReadsScale() throws Exception {
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        BufferPool bp = Database.resetBufferPool(2 * TABLE_PAGES);
+        readConcurrently(1, RUN_MILLIS); // warm up the pool and the JIT
+
+        long single = 0;
+        long all = 0;
+        for (int threads = 1; ; threads = Math.min(2 * threads, maxThreads)) {
+            bp.getStats().reset();
+            long[] reads = readConcurrently(threads, RUN_MILLIS);
+            for (long r : reads)
+                assertTrue(r > 0);
+            assertEquals(sum(reads), bp.getStats().getHits());
+            assertEquals(0, bp.getStats().getMisses());
+            assertEquals(0, bp.getStats().getEvictions());
+
+            long perSecond = sum(reads) * 1000 / RUN_MILLIS;
+            System.out.println("BufferPool resident reads: " + threads + " threads, " + perSecond + " reads/s");
+            if (threads == 1)
+                single = perSecond;
+            all = perSecond;
+            if (threads == maxThreads)
+                break;
+        }
+        // leave room for noise, each count of threads is measured only once.
+        assertTrue("N threads read slower than one", all >= single * 3 / 4);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for resizing a BufferPool in place.
+ */
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 8;
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+    }
+
+    private BufferPool pool(int pages, boolean offHeap) throws Exception {
+        BufferPool bp = Database.resetBufferPool(pages, BufferPool.DEFAULT_POLICY, offHeap);
+        bp.setPrefetchWindow(0);
+        bp.setStealNoForce(false);
+        return bp;
+    }
+
+    private void read(BufferPool bp, TransactionId tid, int from, int to) throws Exception {
+        for (int i = from; i < to; ++i) {
+            HeapPageId pid = new HeapPageId(table.getId(), i);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+            bp.unpinPage(tid, pid);
+        }
+    }
+
+    private void growKeepsPages(boolean offHeap) throws Exception {
+        BufferPool bp = pool(TABLE_PAGES / 2, offHeap);
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 0, TABLE_PAGES / 2);
+        bp.resize(2 * TABLE_PAGES);
+        assertEquals(2 * TABLE_PAGES, bp.getNumPages());
+
+        read(bp, tid, 0, TABLE_PAGES);
+        read(bp, tid, 0, TABLE_PAGES);
+        bp.transactionComplete(tid);
+        BufferPoolStats stats = bp.getStats();
+        assertEquals(TABLE_PAGES, stats.getMisses());
+        assertEquals(TABLE_PAGES + TABLE_PAGES / 2, stats.getHits());
+        assertEquals(0, stats.getEvictions());
+    }
+
+    /**
+     * A grown pool keeps its pages and caches more of them.
+     */
+    @Test public void grow() throws Exception {
+        growKeepsPages(false);
+    }
+
+    /**
+     * An off-heap pool adds arena slots when it grows.
+     */
+    @Test public void growOffHeap() throws Exception {
+        growKeepsPages(true);
+    }
+
+    /**
+     * Shrinking evicts the clean pages at once, and the pages of a running
+     * transaction once they are no longer dirty.
+     */
+    @Test public void shrinkGradually() throws Exception {
+        BufferPool bp = pool(2 * TABLE_PAGES, false);
+        TransactionId reader = new TransactionId();
+        read(bp, reader, 0, TABLE_PAGES - 2);
+        bp.transactionComplete(reader);
+
+        TransactionId writer = new TransactionId();
+        for (int i = TABLE_PAGES - 2; i < TABLE_PAGES; ++i) {
+            HeapPageId pid = new HeapPageId(table.getId(), i);
+            HeapPage page = (HeapPage) bp.getPage(writer, pid, Permissions.READ_WRITE);
+            Tuple t = page.iterator().next();
+            bp.unpinPage(writer, pid);
+            bp.deleteTuple(writer, t);
+        }
+
+        bp.resize(1);
+        assertEquals(TABLE_PAGES - 2, bp.getStats().getEvictions());
+        assertEquals(2, bp.getResidentPages());
+
+        // the transaction still sees its own pages.
+        long misses = bp.getStats().getMisses();
+        read(bp, writer, TABLE_PAGES - 2, TABLE_PAGES);
+        assertEquals(misses, bp.getStats().getMisses());
+        bp.transactionComplete(writer);
+
+        // the next miss takes one frame and gives back another.
+        TransactionId tid = new TransactionId();
+        read(bp, tid, 0, 1);
+        assertEquals(1, bp.getResidentPages());
+        read(bp, tid, 1, 3);
+        assertEquals(1, bp.getResidentPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.EvictionTest;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for the counters of the BufferPool.
+ */
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 8;
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+    }
+
+    private void scan(BufferPool bp) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A scan that fits in the pool misses each page once, and hits them
+     * all the second time.
+     */
+    @Test public void hitsAndMisses() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2 * TABLE_PAGES);
+        bp.setPrefetchWindow(0);
+        BufferPoolStats stats = bp.getStats();
+
+        scan(bp);
+        assertEquals(0, stats.getHits());
+        assertEquals(TABLE_PAGES, stats.getMisses());
+        assertEquals(TABLE_PAGES, stats.getPagesRead());
+        assertEquals(TABLE_PAGES * BufferPool.getPageSize(), stats.getBytesRead());
+
+        scan(bp);
+        assertEquals(TABLE_PAGES, stats.getHits());
+        assertEquals(TABLE_PAGES, stats.getMisses());
+        String name = Database.getCatalog().getTableName(table.getId());
+        assertEquals(TABLE_PAGES, stats.getTableHits(name));
+        assertEquals(0, stats.getEvictions());
+    }
+
+    /**
+     * Evictions and the write-back of committed pages are counted.
+     */
+    @Test public void evictionsAndFlushes() throws Exception {
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES / 2);
+        scan(bp);
+        BufferPoolStats stats = bp.getStats();
+        assertTrue(stats.getEvictions() >= TABLE_PAGES / 2);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(table, t);
+        t.commit();
+        // a NO-FORCE pool writes the page back later.
+        bp.flushAllPages();
+        assertTrue(stats.getFlushes() >= 1);
+        assertEquals(stats.getPagesWritten() * BufferPool.getPageSize(), stats.getBytesWritten());
+    }
+
+    /**
+     * A transaction locking most pages of a table escalates to a table
+     * lock, and the escalation is counted.
+     */
+    @Test public void lockEscalations() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2 * TABLE_PAGES);
+        bp.setLockEscalation(TABLE_PAGES / 2, 0);
+        scan(bp);
+        BufferPoolStats stats = bp.getStats();
+        assertEquals(1, stats.getLockEscalations());
+        assertTrue(stats.report().contains("lock escalations: 1"));
+    }
+
+    /**
+     * The counters of the current pool are visible over JMX.
+     */
+    @Test public void publishedOverJmx() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2 * TABLE_PAGES);
+        bp.setPrefetchWindow(0);
+        scan(bp);
+        Object misses = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName(BufferPoolStats.OBJECT_NAME), "Misses");
+        assertEquals((long) TABLE_PAGES, misses);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for the shared file handles of heap and B+ tree files.
+ */
+public class FileHandleCacheTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 8;
+
+    private static File tempFile(byte fill, int length) throws Exception {
+        File f = File.createTempFile("handles", ".dat");
+        f.deleteOnExit();
+        byte[] data = new byte[length];
+        Arrays.fill(data, fill);
+        Files.write(f.toPath(), data);
+        return f;
+    }
+
+    /**
+     * Many threads read different pages of one table at once, through one
+     * open file.
+     */
+    @Test public void concurrentReads() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        table.setMappedReads(false);
+        byte[][] expected = new byte[TABLE_PAGES][];
+        for (int i = 0; i < TABLE_PAGES; ++i)
+            expected[i] = table.readPage(new HeapPageId(table.getId(), i)).getPageData();
+
+        int opens = FileHandleCache.shared().opens();
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < 8; ++t) {
+                int first = t;
+                done.add(threads.submit(() -> {
+                    for (int i = 0; i < 200; ++i) {
+                        int pgNo = (first + i) % TABLE_PAGES;
+                        HeapPageId pid = new HeapPageId(table.getId(), pgNo);
+                        assertArrayEquals(expected[pgNo], table.readPage(pid).getPageData());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done)
+                f.get();
+        } finally {
+            threads.shutdown();
+        }
+        assertEquals(opens, FileHandleCache.shared().opens());
+    }
+
+    /**
+     * B+ tree pages are read and written without opening the file each
+     * time.
+     */
+    @Test public void btreeKeepsFileOpen() throws Exception {
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 504 * TABLE_PAGES, null, null, 0);
+        index.setMappedReads(false);
+        BTreePageId root = BTreeRootPtrPage.getId(index.getId());
+        index.readPage(root);
+
+        int opens = FileHandleCache.shared().opens();
+        for (int i = 0; i < 100; ++i) {
+            Page page = index.readPage(root);
+            index.writePage(page);
+        }
+        assertEquals(opens, FileHandleCache.shared().opens());
+    }
+
+    /**
+     * Only maxOpen files stay open; a closed file is reopened when needed.
+     */
+    @Test public void closesLeastRecentlyUsed() throws Exception {
+        FileHandleCache cache = new FileHandleCache(2);
+        File[] files = new File[3];
+        for (int i = 0; i < files.length; ++i)
+            files[i] = tempFile((byte) i, 100);
+        for (int round = 0; round < 2; ++round) {
+            for (int i = 0; i < files.length; ++i) {
+                ByteBuffer buf = ByteBuffer.allocate(10);
+                assertEquals(10, cache.read(files[i], 50, buf));
+                assertEquals((byte) i, buf.get(0));
+                assertTrue(cache.openFiles() <= 2);
+            }
+        }
+        assertEquals(6, cache.opens());
+
+        // reads stop at the end of the file
+        ByteBuffer buf = ByteBuffer.allocate(10);
+        assertEquals(5, cache.read(files[0], 95, buf));
+        assertEquals(100, cache.size(files[0]));
+    }
+
+    /**
+     * A thread interrupted during I/O closes the shared channel; the next
+     * reader reopens it.
+     */
+    @Test public void survivesInterrupt() throws Exception {
+        FileHandleCache cache = new FileHandleCache(4);
+        File f = tempFile((byte) 7, 100);
+        cache.read(f, 0, ByteBuffer.allocate(10));
+
+        boolean[] interrupted = new boolean[1];
+        Thread t = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            try {
+                cache.read(f, 0, ByteBuffer.allocate(10));
+            } catch (ClosedByInterruptException e) {
+                interrupted[0] = true;
+            } catch (Exception e) {
+                // fall through to the assertion
+            }
+        });
+        t.start();
+        t.join();
+        assertTrue(interrupted[0]);
+
+        ByteBuffer buf = ByteBuffer.allocate(10);
+        assertEquals(10, cache.read(f, 0, buf));
+        assertEquals(7, buf.get(9));
+        cache.write(f, 100, ByteBuffer.wrap(new byte[] { 1, 2 }));
+        assertEquals(102, cache.size(f));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleCacheTest.class);
+    }
+}
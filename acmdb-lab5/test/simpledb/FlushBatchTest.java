@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for writing back dirty pages in batches.
+ */
+public class FlushBatchTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 8;
+
+    /** HeapFile that records the batches it is asked to write. */
+    static class RecordingHeapFile extends HeapFile {
+        final List<List<Integer>> batches = new ArrayList<>();
+        int singleWrites = 0;
+
+        RecordingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            ++singleWrites;
+            super.writePage(page);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            List<Integer> batch = new ArrayList<>();
+            for (Page p : pages)
+                batch.add(p.getId().pageNumber());
+            batches.add(batch);
+            super.writePages(pages);
+        }
+    }
+
+    private RecordingHeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * TABLE_PAGES, 1 << 16, null, null);
+        table = new RecordingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        // commit is to write the pages.
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setStealNoForce(false);
+    }
+
+    /**
+     * Dirty the given pages by deleting their first tuple.
+     */
+    private void dirty(TransactionId tid, int... pgNos) throws Exception {
+        for (int pgNo : pgNos) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(table.getId(), pgNo), Permissions.READ_WRITE);
+            Tuple t = page.iterator().next();
+            Database.getBufferPool().unpinPage(tid, page.getId());
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+    }
+
+    /**
+     * Commit writes the pages of a transaction as one batch in page order,
+     * and what reaches the file is what was in the pool.
+     */
+    @Test public void commitWritesOneSortedBatch() throws Exception {
+        TransactionId tid = new TransactionId();
+        dirty(tid, 5, 1, 3, 2);
+        List<byte[]> expected = new ArrayList<>();
+        for (int pgNo : new int[]{1, 2, 3, 5})
+            expected.add(Database.getBufferPool().getPage(tid,
+                    new HeapPageId(table.getId(), pgNo), Permissions.READ_ONLY).getPageData());
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(0, table.singleWrites);
+        assertEquals(1, table.batches.size());
+        List<Integer> order = new ArrayList<>();
+        for (int pgNo : new int[]{1, 2, 3, 5})
+            order.add(pgNo);
+        assertEquals(order, table.batches.get(0));
+
+        int i = 0;
+        for (int pgNo : new int[]{1, 2, 3, 5})
+            assertArrayEquals(expected.get(i++), table.readPage(new HeapPageId(table.getId(), pgNo)).getPageData());
+    }
+
+    /**
+     * flushAllPages writes each file once.
+     */
+    @Test public void flushAllPagesWritesEachFileOnce() throws Exception {
+        TransactionId tid = new TransactionId();
+        dirty(tid, 7, 0, 6);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, table.batches.size());
+        assertEquals(3, table.batches.get(0).size());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, table.batches.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FlushBatchTest.class);
+    }
+}
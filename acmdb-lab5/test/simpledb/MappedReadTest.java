@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for reading pages through a memory mapping.
+ */
+public class MappedReadTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 4;
+
+    private static byte[] image(DbFile f, PageId pid, int size) {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        f.readPageImage(pid, buf);
+        return buf.array();
+    }
+
+    /**
+     * A mapped heap file reads the same pages, and sees pages written and
+     * appended after it was mapped.
+     */
+    @Test public void heapFile() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        int pageSize = BufferPool.getPageSize();
+        byte[][] expected = new byte[TABLE_PAGES][];
+        table.setMappedReads(false);
+        for (int i = 0; i < TABLE_PAGES; ++i)
+            expected[i] = table.readPage(new HeapPageId(table.getId(), i)).getPageData();
+
+        table.setMappedReads(true);
+        for (int i = 0; i < TABLE_PAGES; ++i) {
+            HeapPageId pid = new HeapPageId(table.getId(), i);
+            assertArrayEquals(expected[i], table.readPage(pid).getPageData());
+            assertArrayEquals(expected[i], image(table, pid, pageSize));
+        }
+
+        HeapPage first = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+        first.deleteTuple(first.iterator().next());
+        table.writePage(first);
+        assertArrayEquals(first.getPageData(), table.readPage(first.getId()).getPageData());
+
+        HeapPageId appended = new HeapPageId(table.getId(), TABLE_PAGES);
+        assertArrayEquals(HeapPage.createEmptyPageData(), image(table, appended, pageSize));
+        HeapPage page = new HeapPage(appended, expected[1]);
+        table.writePage(page);
+        assertEquals(TABLE_PAGES + 1, table.numPages());
+        assertArrayEquals(expected[1], table.readPage(appended).getPageData());
+        assertEquals(2, table.readPages(TABLE_PAGES - 1, 4).size());
+    }
+
+    /**
+     * A mapped B+ tree file reads the same root pointer and pages.
+     */
+    @Test public void btreeFile() throws Exception {
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 504 * TABLE_PAGES, null, null, 0);
+        index.setMappedReads(false);
+        BTreePageId root = BTreeRootPtrPage.getId(index.getId());
+        byte[] rootPtr = index.readPage(root).getPageData();
+        byte[][] expected = new byte[index.numPages()][];
+        BTreeRootPtrPage ptr = (BTreeRootPtrPage) index.readPage(root);
+        for (int i = 0; i < expected.length; ++i)
+            expected[i] = index.readPage(pageId(index, ptr, i + 1)).getPageData();
+
+        index.setMappedReads(true);
+        assertArrayEquals(rootPtr, index.readPage(root).getPageData());
+        assertArrayEquals(rootPtr, image(index, root, BTreeRootPtrPage.getPageSize()));
+        for (int i = 0; i < expected.length; ++i) {
+            BTreePageId pid = pageId(index, ptr, i + 1);
+            assertArrayEquals(expected[i], index.readPage(pid).getPageData());
+            assertArrayEquals(expected[i], image(index, pid, BufferPool.getPageSize()));
+        }
+    }
+
+    /**
+     * The id of page pgNo, with the category of the pages found there: the
+     * root is internal, its children are leaves in this small tree.
+     */
+    private static BTreePageId pageId(BTreeFile index, BTreeRootPtrPage ptr, int pgNo) {
+        BTreePageId rootId = ptr.getRootId();
+        if (rootId.pageNumber() == pgNo)
+            return rootId;
+        if (ptr.getHeaderId() != null && ptr.getHeaderId().pageNumber() == pgNo)
+            return ptr.getHeaderId();
+        return new BTreePageId(index.getId(), pgNo, BTreePageId.LEAF);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedReadTest.class);
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.EvictionTest;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for BufferPools that keep page images off-heap.
+ */
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 16;
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+    }
+
+    private BufferPool resetBufferPool(int pages) {
+        BufferPool bp = Database.resetBufferPool(pages, BufferPool.DEFAULT_POLICY, true);
+        assertTrue(bp.isOffHeap());
+        return bp;
+    }
+
+    /**
+     * A scan through a pool smaller than the table sees every tuple.
+     */
+    @Test public void scanLargerThanPool() throws Exception {
+        resetBufferPool(TABLE_PAGES / 4);
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), table.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++count;
+        }
+        scan.close();
+        t.commit();
+        assertEquals(504 * TABLE_PAGES, count);
+    }
+
+    /**
+     * A transaction keeps seeing the same page object, while a page nobody
+     * uses any more is only kept as an image and built again on demand.
+     */
+    @Test public void unusedPagesKeepOnlyImages() throws Exception {
+        BufferPool bp = resetBufferPool(2 * TABLE_PAGES);
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+
+        TransactionId tid = new TransactionId();
+        Page first = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertSame(first, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        Page second = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertNotSame(first, second);
+        assertArrayEquals(first.getPageData(), second.getPageData());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Committed updates are seen by later transactions once the updated
+     * pages are only kept as images.
+     */
+    @Test public void updatesReachImages() throws Exception {
+        resetBufferPool(2 * TABLE_PAGES);
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(table, t);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(table, t));
+        t.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,253 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for the optimistic transactions of the BufferPool.
+ */
+public class OptimisticTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 3;
+
+    private HeapFile table;
+    private HeapFile other;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES - 10, null, null);
+        other = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES - 10, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static int count(DbFile file, TransactionId tid) throws Exception {
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            ++n;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Count the tuples of file in a transaction of its own.
+     */
+    private int count(DbFile file) throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = count(file, tid);
+        bp.transactionComplete(tid, true);
+        return n;
+    }
+
+    private void insert(TransactionId tid, DbFile file, int value) throws Exception {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(value));
+        t.setField(1, new IntField(value));
+        bp.insertTuple(tid, file.getId(), t);
+    }
+
+    /**
+     * Writes stay private until commit, and no page is locked before it.
+     */
+    @Test public void privateWrites() throws Exception {
+        int before = count(table);
+        Transaction t = new Transaction();
+        t.startOptimistic();
+        assertTrue(bp.isOptimistic(t.getId()));
+        for (int i = 0; i < 20; ++i)
+            insert(t.getId(), table, i);
+        assertEquals(before + 20, count(table, t.getId()));
+        assertFalse(bp.holdsLock(t.getId(), new HeapPageId(table.getId(), TABLE_PAGES - 1)));
+        // others neither see the inserts nor wait for them.
+        assertEquals(before, count(table));
+
+        t.commit();
+        assertFalse(bp.isOptimistic(t.getId()));
+        assertEquals(before + 20, count(table));
+    }
+
+    /**
+     * A transaction whose reads were overwritten by a later commit fails
+     * validation, and its writes are dropped.
+     */
+    @Test public void conflictingCommitAborts() throws Exception {
+        int before = count(table);
+        Transaction first = new Transaction();
+        first.startOptimistic();
+        Transaction second = new Transaction();
+        second.startOptimistic();
+        insert(first.getId(), table, 1);
+        insert(second.getId(), table, 2);
+
+        first.commit();
+        try {
+            second.commit();
+            fail("expected validation to fail");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+        assertEquals(before + 1, count(table));
+    }
+
+    /**
+     * A locking transaction may write the pages an optimistic one read, which
+     * then fails validation.
+     */
+    @Test public void lockingWriterWins() throws Exception {
+        int before = count(table);
+        Transaction reader = new Transaction();
+        reader.startOptimistic();
+        assertEquals(before, count(table, reader.getId()));
+        insert(reader.getId(), other, 1);
+
+        TransactionId writer = new TransactionId();
+        insert(writer, table, 1);
+        bp.transactionComplete(writer, true);
+        try {
+            reader.commit();
+            fail("expected validation to fail");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+        assertEquals(before, count(other));
+    }
+
+    /**
+     * A page read under a shared lock cannot be written by an optimistic
+     * transaction.
+     */
+    @Test public void lockedPageAborts() throws Exception {
+        Transaction t = new Transaction();
+        t.startOptimistic();
+        insert(t.getId(), table, 1);
+
+        TransactionId reader = new TransactionId();
+        assertEquals(504 * TABLE_PAGES - 10, count(table, reader));
+        try {
+            t.commit();
+            fail("expected validation to fail");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+        bp.transactionComplete(reader, true);
+        assertEquals(504 * TABLE_PAGES - 10, count(table));
+    }
+
+    /**
+     * A validation that fails on a locked page gives back the locks it took
+     * on the other pages.
+     */
+    @Test public void failedValidationReleasesLocks() throws Exception {
+        Transaction t = new Transaction();
+        t.startOptimistic();
+        insert(t.getId(), table, 1);
+        insert(t.getId(), other, 2);
+        HeapPageId written = new HeapPageId(table.getId(), TABLE_PAGES - 1);
+
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, new HeapPageId(other.getId(), TABLE_PAGES - 1), Permissions.READ_ONLY);
+        try {
+            bp.validate(t.getId());
+            fail("expected validation to fail");
+        } catch (TransactionAbortedException e) {
+        }
+        assertFalse(bp.holdsLock(t.getId(), written));
+        TransactionId writer = new TransactionId();
+        assertTrue(bp.tryLockPage(writer, written, Permissions.READ_WRITE));
+        bp.transactionComplete(writer, true);
+
+        t.abort();
+        bp.transactionComplete(reader, true);
+        assertEquals(504 * TABLE_PAGES - 10, count(table));
+    }
+
+    /**
+     * Transactions that touch different tables all commit.
+     */
+    @Test public void disjointCommits() throws Exception {
+        Transaction first = new Transaction();
+        first.startOptimistic();
+        Transaction second = new Transaction();
+        second.startOptimistic();
+        insert(first.getId(), table, 1);
+        insert(second.getId(), other, 2);
+        second.commit();
+        first.commit();
+        assertEquals(504 * TABLE_PAGES - 9, count(table));
+        assertEquals(504 * TABLE_PAGES - 9, count(other));
+    }
+
+    /**
+     * Concurrent read-modify-write transactions retried on failed
+     * validation lose no update.
+     */
+    @Test public void noLostUpdates() throws Exception {
+        HeapFile counter = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        TransactionId init = new TransactionId();
+        insert(init, counter, 0);
+        bp.transactionComplete(init, true);
+
+        final int threads = 4;
+        final int increments = 25;
+        Thread[] workers = new Thread[threads];
+        final Exception[] failure = new Exception[1];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Thread(() -> {
+                try {
+                    for (int done = 0; done < increments; ) {
+                        Transaction t = new Transaction();
+                        t.startOptimistic();
+                        DbFileIterator it = counter.iterator(t.getId());
+                        it.open();
+                        Tuple tuple = it.next();
+                        it.close();
+                        bp.deleteTuple(t.getId(), tuple);
+                        insert(t.getId(), counter, ((IntField) tuple.getField(0)).getValue() + 1);
+                        try {
+                            t.commit();
+                            ++done;
+                        } catch (IOException e) {
+                            // failed validation, and aborted.
+                        }
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        if (failure[0] != null)
+            throw failure[0];
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = counter.iterator(tid);
+        it.open();
+        assertEquals(threads * increments, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+        it.close();
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticTest.class);
+    }
+}
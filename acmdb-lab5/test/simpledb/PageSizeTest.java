@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * Tests for files whose page size differs from the default.
+ */
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int BIG_PAGE = 4 * BufferPool.getPageSize();
+    private static final int TABLE_PAGES = 3;
+
+    private static ArrayList<ArrayList<Integer>> tuples(int rows) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; ++i) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    private static int count(DbFile f, TransactionId tid) throws Exception {
+        int rows = 0;
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            ++rows;
+        }
+        it.close();
+        return rows;
+    }
+
+    private static int count(DbFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        int rows = count(f, tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    private static HeapFile bigHeapFile(int rows) throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples(rows), f, BIG_PAGE, 2);
+        HeapFile table = Utility.openHeapFile(2, f, BIG_PAGE);
+        assertEquals(BIG_PAGE, table.getPageSize());
+        return table;
+    }
+
+    private void readThroughPool(boolean offHeap) throws Exception {
+        int perPage = BIG_PAGE * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        HeapFile table = bigHeapFile(perPage * TABLE_PAGES);
+        assertEquals(TABLE_PAGES, table.numPages());
+
+        BufferPool bp = Database.resetBufferPool(8, BufferPool.DEFAULT_POLICY, offHeap);
+        bp.setPrefetchWindow(0);
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(BIG_PAGE, page.getPageData().length);
+        assertEquals(4, bp.getResidentPages());
+        bp.unpinPage(tid, page.getId());
+
+        // an 8-page pool holds two of the big pages at a time
+        assertEquals(perPage * TABLE_PAGES, count(table, tid));
+        assertTrue(bp.getResidentPages() <= bp.getNumPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages larger than the default are read whole and take several frames.
+     */
+    @Test public void heapFile() throws Exception {
+        readThroughPool(false);
+    }
+
+    @Test public void heapFileOffHeap() throws Exception {
+        readThroughPool(true);
+    }
+
+    /**
+     * Tuples inserted into a big-page heap file go to its big pages.
+     */
+    @Test public void insertIntoHeapFile() throws Exception {
+        HeapFile table = bigHeapFile(10);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; ++i)
+            Database.getBufferPool().insertTuple(tid, table.getId(), BTreeUtility.getBTreeTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, table.numPages());
+        assertEquals(110, count(table));
+    }
+
+    /**
+     * A B+ tree with big pages fits more entries per page, and splits them
+     * correctly.
+     */
+    @Test public void btreeFile() throws Exception {
+        File hFile = File.createTempFile("table", ".dat");
+        File bFile = File.createTempFile("table", ".dat");
+        hFile.deleteOnExit();
+        bFile.deleteOnExit();
+        int rows = 2000;
+        BTreeFile index = BTreeFileEncoder.convert(tuples(rows), hFile, bFile, BIG_PAGE,
+                2, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 0);
+        assertEquals(BIG_PAGE, index.getPageSize());
+        // 2000 tuples fit in one leaf of a big page
+        assertEquals(1, index.numPages());
+
+        TransactionId tid = new TransactionId();
+        for (int i = rows; i < 3 * rows; ++i)
+            Database.getBufferPool().insertTuple(tid, index.getId(), BTreeUtility.getBTreeTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(index.numPages() > 1);
+        assertEquals(3 * rows, count(index));
+        BTreeLeafPage leaf = (BTreeLeafPage) index.readPage(
+                new BTreePageId(index.getId(), 2, BTreePageId.LEAF));
+        assertEquals(BIG_PAGE, leaf.getPageData().length);
+    }
+
+    /**
+     * The catalog reads the page size of a table from the schema.
+     */
+    @Test public void catalogSchema() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("big (a int, b int) pagesize " + BIG_PAGE + "\n");
+            w.write("small (a int, b int)\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog catalog = Database.getCatalog();
+        assertEquals(BIG_PAGE, catalog.getDatabaseFile(catalog.getTableId("big")).getPageSize());
+        assertEquals(BufferPool.getPageSize(),
+                catalog.getDatabaseFile(catalog.getTableId("small")).getPageSize());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
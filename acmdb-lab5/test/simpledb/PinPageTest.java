@@ -0,0 +1,92 @@
+package simpledb;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for pinning pages in the BufferPool.
+ */
+public class PinPageTest extends SimpleDbTestBase {
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(table.getId(), pgNo);
+    }
+
+    /**
+     * Eviction takes an unpinned page rather than one still in use.
+     */
+    @Test public void pinnedPageStaysResident() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        Page pinned = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.unpinPage(tid, pid(1));
+
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertSame(pinned, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A pool whose pages are all pinned refuses to read another one rather
+     * than evict a page in use.
+     */
+    @Test public void pinnedPagesAreNeverEvicted() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        Page first = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        Page second = bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+            fail("evicted a pinned page");
+        } catch (DbException expected) {
+        }
+        assertSame(first, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        assertSame(second, bp.getPage(tid, pid(1), Permissions.READ_ONLY));
+
+        // once a page is unpinned, its frame may be taken.
+        bp.unpinPage(tid, pid(1));
+        bp.unpinPage(tid, pid(1));
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * An off-heap pool drops the page object as soon as the page is
+     * unpinned, without waiting for the transaction to complete.
+     */
+    @Test public void unpinnedPageIsReclaimed() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8, BufferPool.DEFAULT_POLICY, true);
+        TransactionId tid = new TransactionId();
+        Page first = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertSame(first, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        bp.unpinPage(tid, pid(0));
+        assertSame(first, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        bp.unpinPage(tid, pid(0));
+        bp.unpinPage(tid, pid(0));
+
+        assertNotSame(first, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinPageTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 32;
+
+    /** HeapFile that counts single and multi-page reads. */
+    static class CountingHeapFile extends HeapFile {
+        final AtomicInteger pageReads = new AtomicInteger(0);
+        final AtomicInteger runReads = new AtomicInteger(0);
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            pageReads.incrementAndGet();
+            return super.readPage(pid);
+        }
+
+        @Override
+        public List<Page> readPages(int firstPgNo, int count) {
+            runReads.incrementAndGet();
+            return super.readPages(firstPgNo, count);
+        }
+    }
+
+    private CountingHeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * TABLE_PAGES, 1 << 16, null, null);
+        table = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "readahead");
+    }
+
+    /**
+     * Prefetching a run of pages reads them with one request, and later
+     * accesses are served from the pool.
+     */
+    @Test public void prefetchReadsRunOnce() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2 * TABLE_PAGES);
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < 8; ++i)
+            pids.add(new HeapPageId(table.getId(), i));
+        bp.prefetch(pids, null);
+        assertEquals(1, table.runReads.get());
+
+        TransactionId tid = new TransactionId();
+        for (PageId pid : pids)
+            assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+        assertEquals(0, table.pageReads.get());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Prefetching never evicts pages it cannot evict, and stops quietly
+     * when the pool is full of dirty pages.
+     */
+    @Test public void prefetchGivesUpWhenPoolIsDirty() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2; ++i)
+            bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_WRITE).markDirty(true, tid);
+
+        bp.prefetch(new HeapPageId(table.getId(), 5), null);
+        assertEquals(0, table.runReads.get());
+        assertEquals(2, table.pageReads.get());
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * A scan with read-ahead enabled still sees every tuple exactly once,
+     * also when the pool is much smaller than the table.
+     */
+    @Test public void scanWithReadAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES / 2);
+        bp.setPrefetchWindow(8);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++count;
+        }
+        scan.close();
+        assertEquals(504 * TABLE_PAGES, count);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for the record locks heap tuple updates take in the BufferPool.
+ */
+public class RecordLockingTest extends SimpleDbTestBase {
+    private static final int TUPLES = 504 - 10;
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, TUPLES, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        // records are only locked in NO-STEAL/FORCE mode.
+        bp.setStealNoForce(false);
+        bp.setRecordLocking(true);
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.setRecordLocking(BufferPool.DEFAULT_RECORD_LOCKING);
+        bp.setStealNoForce(BufferPool.DEFAULT_STEAL_NO_FORCE);
+    }
+
+    private static int count(DbFile file, TransactionId tid) throws Exception {
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            ++n;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Count the tuples of the table in a transaction of its own.
+     */
+    private int count() throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = count(table, tid);
+        bp.transactionComplete(tid, true);
+        return n;
+    }
+
+    private void insert(TransactionId tid, int value) throws Exception {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(value));
+        t.setField(1, new IntField(value));
+        bp.insertTuple(tid, table.getId(), t);
+    }
+
+    /**
+     * @return the first n tuples of the table.
+     */
+    private Tuple[] firstTuples(int n) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        Tuple[] tuples = new Tuple[n];
+        for (int i = 0; i < n; ++i)
+            tuples[i] = it.next();
+        it.close();
+        bp.transactionComplete(tid, true);
+        return tuples;
+    }
+
+    /**
+     * Two transactions insert into the free slots of the same page without
+     * waiting for each other.
+     */
+    @Test public void insertsShareAPage() throws Exception {
+        TransactionId first = new TransactionId();
+        TransactionId second = new TransactionId();
+        assertTrue(bp.locksRecords(first));
+        insert(first, 1);
+        insert(second, 2);
+        assertEquals(1, table.numPages());
+        bp.transactionComplete(first, true);
+        bp.transactionComplete(second, true);
+        assertEquals(TUPLES + 2, count());
+    }
+
+    /**
+     * A record updated by one transaction cannot be locked by another, which
+     * is left holding no lock on the page.
+     */
+    @Test public void recordConflicts() throws Exception {
+        Tuple t = firstTuples(1)[0];
+        RecordId rid = t.getRecordId();
+        TransactionId first = new TransactionId();
+        bp.deleteTuple(first, t);
+        TransactionId second = new TransactionId();
+        assertNull(bp.tryGetRecordPage(second, rid));
+        assertFalse(bp.holdsLock(second, rid.getPageId()));
+        bp.transactionComplete(first, false);
+        assertNotNull(bp.tryGetRecordPage(second, rid));
+        bp.transactionComplete(second, false);
+        assertEquals(TUPLES, count());
+    }
+
+    /**
+     * Aborting one of two transactions updating the same page keeps the
+     * records the other committed, and only those.
+     */
+    @Test public void abortKeepsOtherRecords() throws Exception {
+        Tuple[] tuples = firstTuples(2);
+        RecordId kept = tuples[0].getRecordId();
+        RecordId deleted = tuples[1].getRecordId();
+        TransactionId first = new TransactionId();
+        TransactionId second = new TransactionId();
+        bp.deleteTuple(first, tuples[0]);
+        insert(first, 1);
+        bp.deleteTuple(second, tuples[1]);
+        insert(second, 2);
+
+        bp.transactionComplete(second, true);
+        bp.transactionComplete(first, false);
+        assertEquals(TUPLES, count());
+        Tuple[] after = firstTuples(2);
+        assertEquals(kept, after[0].getRecordId());
+        assertEquals(deleted, after[1].getRecordId());
+        assertEquals(2, ((IntField) after[1].getField(0)).getValue());
+
+        // the page on disk holds the same.
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(TUPLES, count());
+    }
+
+    /**
+     * A transaction reading a page it updated sees its own records, and
+     * still commits them.
+     */
+    @Test public void readOwnRecords() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 1);
+        assertEquals(TUPLES + 1, count(table, tid));
+        insert(tid, 2);
+        assertEquals(TUPLES + 2, count(table, tid));
+        bp.transactionComplete(tid, true);
+        assertEquals(TUPLES + 2, count());
+    }
+
+    /**
+     * Records are not locked in STEAL mode, nor by snapshot transactions.
+     */
+    @Test public void pageLocksOnly() throws Exception {
+        Transaction snapshot = new Transaction();
+        snapshot.startSnapshot();
+        assertFalse(bp.locksRecords(snapshot.getId()));
+        snapshot.commit();
+
+        bp.setStealNoForce(true);
+        assertFalse(bp.locksRecords(new TransactionId()));
+        bp.setStealNoForce(false);
+        bp.setRecordLocking(false);
+        assertFalse(bp.locksRecords(new TransactionId()));
+    }
+
+    /**
+     * Inserts skip the pages they found full, and come back to a page once a
+     * record is deleted from it.
+     */
+    @Test public void insertsSkipFullPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10 + 504; ++i)
+            insert(tid, i);
+        bp.transactionComplete(tid, true);
+        // both pages are full now.
+        assertEquals(2, table.numPages());
+
+        Tuple t = firstTuples(1)[0];
+        tid = new TransactionId();
+        bp.deleteTuple(tid, t);
+        insert(tid, -1);
+        bp.transactionComplete(tid, true);
+        assertEquals(2, table.numPages());
+        assertEquals(TUPLES + 10 + 504, count());
+    }
+
+    /**
+     * Concurrent inserters lose no tuple, and fill the pages they share.
+     */
+    @Test public void concurrentInserts() throws Exception {
+        final int threads = 4;
+        final int inserts = 50;
+        Thread[] workers = new Thread[threads];
+        final Exception[] failure = new Exception[1];
+        for (int i = 0; i < threads; ++i) {
+            final int base = i * inserts;
+            workers[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < inserts; ++j) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        insert(t.getId(), base + j);
+                        t.commit();
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        if (failure[0] != null)
+            throw failure[0];
+
+        assertEquals(TUPLES + threads * inserts, count());
+        assertEquals(2, table.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
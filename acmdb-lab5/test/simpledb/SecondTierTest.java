@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for the compressed second tier of the BufferPool.
+ */
+public class SecondTierTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 8;
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        bp = Database.resetBufferPool(TABLE_PAGES / 2);
+        bp.setPrefetchWindow(0);
+        bp.setStealNoForce(false);
+        bp.setSecondTier(1 << 20);
+    }
+
+    private void readAll(TransactionId tid) throws Exception {
+        for (int i = 0; i < TABLE_PAGES; ++i) {
+            HeapPageId pid = new HeapPageId(table.getId(), i);
+            Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertArrayEquals(table.readPage(pid).getPageData(), page.getPageData());
+            bp.unpinPage(tid, pid);
+        }
+    }
+
+    /**
+     * Evicted pages are read back from the second tier, not from disk.
+     */
+    @Test public void refaultFromSecondTier() throws Exception {
+        TransactionId tid = new TransactionId();
+        readAll(tid);
+        assertEquals(TABLE_PAGES, bp.getStats().getPagesRead());
+        assertEquals(TABLE_PAGES / 2, bp.getSecondTierPages());
+
+        readAll(tid);
+        bp.transactionComplete(tid);
+        assertEquals(TABLE_PAGES, bp.getStats().getPagesRead());
+        assertEquals(TABLE_PAGES, bp.getStats().getSecondTierHits());
+    }
+
+    /**
+     * A page changed after it came back from the tier is not served from
+     * its old image.
+     */
+    @Test public void updatedPageReplacesImage() throws Exception {
+        TransactionId tid = new TransactionId();
+        readAll(tid);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        Tuple t = page.iterator().next();
+        bp.unpinPage(tid, pid);
+        bp.deleteTuple(tid, t);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        readAll(tid);
+        readAll(tid);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The tier keeps within its budget by dropping the oldest images, and
+     * hands out each image once.
+     */
+    @Test public void budget() throws Exception {
+        byte[][] images = new byte[3][];
+        for (int i = 0; i < images.length; ++i)
+            images[i] = table.readPage(new HeapPageId(table.getId(), i)).getPageData();
+        CompressedPageCache probe = new CompressedPageCache(Long.MAX_VALUE);
+        probe.put(new HeapPageId(table.getId(), 0), images[0]);
+        long size = probe.bytes();
+        assertTrue(size < images[0].length);
+
+        CompressedPageCache tier = new CompressedPageCache(size * 5 / 2);
+        for (int i = 0; i < images.length; ++i)
+            tier.put(new HeapPageId(table.getId(), i), images[i]);
+        assertEquals(2, tier.size());
+        assertTrue(tier.bytes() <= size * 5 / 2);
+        assertNull(tier.take(new HeapPageId(table.getId(), 0)));
+        assertArrayEquals(images[2], tier.take(new HeapPageId(table.getId(), 2)));
+        assertNull(tier.take(new HeapPageId(table.getId(), 2)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondTierTest.class);
+    }
+}
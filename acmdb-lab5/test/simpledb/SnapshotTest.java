@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for the snapshot transactions of the BufferPool.
+ */
+public class SnapshotTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 3;
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES - 10, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static int count(DbFile file, TransactionId tid) throws Exception {
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            ++n;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Count the tuples of file in a transaction of its own.
+     */
+    private int count(DbFile file) throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = count(file, tid);
+        bp.transactionComplete(tid, true);
+        return n;
+    }
+
+    private void insert(TransactionId tid, DbFile file, int value) throws Exception {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(value));
+        t.setField(1, new IntField(value));
+        bp.insertTuple(tid, file.getId(), t);
+    }
+
+    /**
+     * A snapshot reads what was committed when it began, without waiting
+     * for the writer of the pages or holding it up.
+     */
+    @Test public void readsCommittedSnapshot() throws Exception {
+        int before = count(table);
+
+        TransactionId writer = new TransactionId();
+        insert(writer, table, 1);
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertTrue(bp.isSnapshot(reader));
+        // the uncommitted insert is not seen, and the pages are not locked.
+        assertEquals(before, count(table, reader));
+        assertFalse(bp.holdsLock(reader, new HeapPageId(table.getId(), 0)));
+
+        for (int i = 2; i < 20; ++i)
+            insert(writer, table, i);
+        bp.transactionComplete(writer, true);
+        assertEquals(before, count(table, reader));
+
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(before + 19, count(table, later));
+        bp.transactionComplete(later, true);
+        bp.transactionComplete(reader, true);
+        assertFalse(bp.isSnapshot(reader));
+    }
+
+    /**
+     * Versions are only kept while a snapshot may read them.
+     */
+    @Test public void versionsCollected() throws Exception {
+        TransactionId writer = new TransactionId();
+        insert(writer, table, 1);
+        bp.transactionComplete(writer, true);
+        assertEquals(0, bp.getVersionCount());
+
+        TransactionId old = new TransactionId();
+        bp.beginSnapshot(old);
+        writer = new TransactionId();
+        insert(writer, table, 2);
+        bp.transactionComplete(writer, true);
+        assertEquals(1, bp.getVersionCount());
+
+        TransactionId young = new TransactionId();
+        bp.beginSnapshot(young);
+        writer = new TransactionId();
+        insert(writer, table, 3);
+        bp.transactionComplete(writer, true);
+        assertEquals(2, bp.getVersionCount());
+
+        // the young snapshot only needs the version replaced after it began
+        bp.transactionComplete(old, true);
+        assertEquals(1, bp.getVersionCount());
+        bp.transactionComplete(young, true);
+        assertEquals(0, bp.getVersionCount());
+    }
+
+    /**
+     * Snapshots are read-only.
+     */
+    @Test(expected = DbException.class) public void cannotWrite() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        bp.getPage(reader, new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+    }
+
+    /**
+     * A snapshot of a B+ tree stays consistent while the tree splits.
+     */
+    @Test public void btreeSnapshot() throws Exception {
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 500, null, null, 0);
+        // building the tree leaves locks behind.
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertEquals(500, count(index, reader));
+
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 1000; ++i)
+            insert(writer, index, i);
+        bp.transactionComplete(writer, true);
+        assertEquals(500, count(index, reader));
+        assertEquals(1500, count(index));
+        bp.transactionComplete(reader, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
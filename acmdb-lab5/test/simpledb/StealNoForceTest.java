@@ -0,0 +1,222 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.EvictionTest;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for the STEAL/NO-FORCE mode of the BufferPool.
+ */
+public class StealNoForceTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 10;
+
+    /** HeapFile that counts page writes. */
+    static class CountingHeapFile extends HeapFile {
+        final AtomicInteger pageWrites = new AtomicInteger(0);
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws java.io.IOException {
+            pageWrites.incrementAndGet();
+            super.writePage(page);
+        }
+
+        @Override
+        public void writePages(java.util.List<Page> pages) throws java.io.IOException {
+            pageWrites.addAndGet(pages.size());
+            super.writePages(pages);
+        }
+    }
+
+    /** CountingHeapFile whose writes fail while failing is set. */
+    static class FailingHeapFile extends CountingHeapFile {
+        volatile boolean failing = true;
+
+        FailingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws java.io.IOException {
+            if (failing) {
+                pageWrites.incrementAndGet();
+                throw new java.io.IOException("write failed");
+            }
+            super.writePage(page);
+        }
+
+        @Override
+        public void writePages(java.util.List<Page> pages) throws java.io.IOException {
+            if (failing) {
+                pageWrites.addAndGet(pages.size());
+                throw new java.io.IOException("write failed");
+            }
+            super.writePages(pages);
+        }
+    }
+
+    private CountingHeapFile table;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * TABLE_PAGES, 1 << 16, null, null);
+        table = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "stealnoforce");
+        bp = Database.resetBufferPool(2);
+        bp.setStealNoForce(true);
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.setStealNoForce(false);
+    }
+
+    private int countTuples(Transaction t) throws Exception {
+        SeqScan scan = new SeqScan(t.getId(), table.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            ++count;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * A transaction may dirty more pages than the pool holds, and aborting
+     * it undoes the pages it wrote back.
+     */
+    @Test public void transactionOutgrowsPool() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), table.getId(), ""));
+        delete.open();
+        assertEquals(504 * TABLE_PAGES, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        assertEquals(0, countTuples(t));
+        assertTrue(table.pageWrites.get() > 0);
+        t.abort();
+
+        t = new Transaction();
+        t.start();
+        assertEquals(504 * TABLE_PAGES, countTuples(t));
+        t.commit();
+    }
+
+    /**
+     * A snapshot reads the committed pages, not the uncommitted ones written
+     * back for a running transaction, before and after it commits.
+     */
+    @Test public void snapshotSkipsStolenPages() throws Exception {
+        Transaction reader = new Transaction();
+        reader.startSnapshot();
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), table.getId(), ""));
+        delete.open();
+        delete.next();
+        delete.close();
+        assertTrue(table.pageWrites.get() > 0);
+        assertEquals(504 * TABLE_PAGES, countTuples(reader));
+
+        t.commit();
+        assertEquals(504 * TABLE_PAGES, countTuples(reader));
+        reader.commit();
+        Transaction later = new Transaction();
+        later.startSnapshot();
+        assertEquals(0, countTuples(later));
+        later.commit();
+    }
+
+    /**
+     * A committed update that is still only in the pool survives the loss
+     * of the pool through recovery from the log.
+     */
+    @Test public void recoverCommittedUpdate() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(table, t);
+        t.commit();
+
+        // crash: the pool and whatever it did not write back are lost.
+        bp = Database.resetBufferPool(2);
+        Database.getLogFile().recover();
+
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(table, t));
+        t.commit();
+    }
+
+    /**
+     * The cleaner writes back the pages of committed transactions.
+     */
+    @Test public void cleanerWritesCommittedPages() throws Exception {
+        bp = Database.resetBufferPool(TABLE_PAGES * 2);
+        bp.setStealNoForce(true);
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(table, t);
+        t.commit();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (table.pageWrites.get() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(PageCleaner.INTERVAL);
+        assertFalse(table.pageWrites.get() == 0);
+    }
+
+    /**
+     * A cleaner whose rounds fail does not try again before its backoff is
+     * over, however often eviction wakes it up.
+     */
+    @Test public void failingCleanerBacksOff() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1 << 16, null, null);
+        FailingHeapFile failing = new FailingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(failing, "failing");
+        bp = Database.resetBufferPool(TABLE_PAGES * 2);
+        bp.setStealNoForce(true);
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(failing, t);
+        t.commit();
+
+        try {
+            // after the third failed round, the cleaner waits 4 intervals.
+            long deadline = System.currentTimeMillis() + 5000;
+            while (failing.pageWrites.get() < 3 && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+            int tries = failing.pageWrites.get();
+            assertEquals(3, tries);
+            for (long end = System.currentTimeMillis() + 2 * PageCleaner.INTERVAL; System.currentTimeMillis() < end; ) {
+                bp.wakeCleaner();
+                Thread.sleep(1);
+            }
+            assertEquals(tries, failing.pageWrites.get());
+        } finally {
+            failing.failing = false;
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
@@ -0,0 +1,627 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+/**
+ * Tests for the lock queues of the TransactionManager.
+ */
+public class TransactionManagerTest extends SimpleDbTestBase {
+    private static final int WAIT = 20;
+
+    private TransactionManager tm;
+    private PageId p0;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tm = new TransactionManager();
+        p0 = new HeapPageId(1, 0);
+    }
+
+    /**
+     * A thread requesting a lock, which counts down granted once it has it.
+     */
+    private class Requester extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        final CountDownLatch granted = new CountDownLatch(1);
+        volatile long grantedAt;
+        volatile Exception error;
+
+        Requester(Permissions perm) {
+            this(new TransactionId(), p0, perm);
+        }
+
+        Requester(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                tm.acquireLock(tid, pid, perm);
+                grantedAt = System.nanoTime();
+                granted.countDown();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        boolean waitGranted() throws InterruptedException {
+            return granted.await(WAIT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Released locks are handed to waiters at once rather than at the next
+     * poll of the waiters.
+     */
+    @Test public void handOffIsPrompt() throws Exception {
+        TransactionId holder = new TransactionId();
+        tm.acquireLock(holder, p0, Permissions.READ_WRITE);
+        Requester r = new Requester(Permissions.READ_WRITE);
+        assertFalse(r.waitGranted());
+
+        long released = System.nanoTime();
+        tm.release(holder);
+        assertTrue(r.granted.await(1, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(r.grantedAt - released) < 20);
+    }
+
+    /**
+     * Readers waiting for a writer all get the page when it is done.
+     */
+    @Test public void readersGrantedTogether() throws Exception {
+        TransactionId writer = new TransactionId();
+        tm.acquireLock(writer, p0, Permissions.READ_WRITE);
+        List<Requester> readers = new ArrayList<>();
+        for (int i = 0; i < 3; ++i)
+            readers.add(new Requester(Permissions.READ_ONLY));
+        for (Requester r : readers)
+            assertFalse(r.waitGranted());
+
+        tm.release(writer, p0);
+        for (Requester r : readers) {
+            assertTrue(r.waitGranted());
+            assertTrue(tm.holdsLock(r.tid, p0));
+        }
+    }
+
+    /**
+     * A reader arriving after a waiting writer queues behind it.
+     */
+    @Test public void requestsAreFifo() throws Exception {
+        TransactionId reader = new TransactionId();
+        tm.acquireLock(reader, p0, Permissions.READ_ONLY);
+        Requester writer = new Requester(Permissions.READ_WRITE);
+        assertFalse(writer.waitGranted());
+        Requester late = new Requester(Permissions.READ_ONLY);
+        assertFalse(late.waitGranted());
+
+        tm.release(reader);
+        assertTrue(writer.waitGranted());
+        assertFalse(late.waitGranted());
+        tm.release(writer.tid);
+        assertTrue(late.waitGranted());
+    }
+
+    /**
+     * A shared lock is upgraded in place, ahead of other waiters.
+     */
+    @Test public void upgradeInPlace() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        tm.acquireLock(t1, p0, Permissions.READ_ONLY);
+        tm.acquireLock(t2, p0, Permissions.READ_ONLY);
+        Requester writer = new Requester(Permissions.READ_WRITE);
+        assertFalse(writer.waitGranted());
+
+        Thread upgrade = new Thread(() -> {
+            try {
+                tm.acquireLock(t1, p0, Permissions.READ_WRITE);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        upgrade.start();
+        Thread.sleep(WAIT);
+        assertTrue(upgrade.isAlive());
+
+        tm.release(t2);
+        upgrade.join(1000);
+        assertFalse(upgrade.isAlive());
+        List<TransactionManager.Lock> locks = tm.getLocksFromTid(t1);
+        assertEquals(1, locks.size());
+        assertEquals(TransactionManager.LockType.EXCLUSIVE, locks.get(0).type);
+        assertFalse(writer.waitGranted());
+    }
+
+    /**
+     * Locks are found by equal ids, not only by the same objects.
+     */
+    @Test public void equalIds() throws Exception {
+        TransactionId tid = new TransactionId();
+        tm.acquireLock(tid, p0, Permissions.READ_WRITE);
+        assertTrue(tm.holdsLock(tid, new HeapPageId(1, 0)));
+        tm.acquireLock(tid, new HeapPageId(1, 0), Permissions.READ_ONLY);
+        assertEquals(1, tm.getLocksFromTid(tid).size());
+
+        tm.release(tid, new HeapPageId(1, 0));
+        assertFalse(tm.holdsLock(tid, p0));
+        assertTrue(tm.tryAcquireSharedLock(new TransactionId(), p0));
+    }
+
+    /**
+     * Of two transactions waiting for each other, the younger aborts, and
+     * its request no longer holds up the requests after it.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        PageId p1 = new HeapPageId(1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        tm.acquireLock(older, p0, Permissions.READ_WRITE);
+        tm.acquireLock(younger, p1, Permissions.READ_WRITE);
+
+        Requester o = new Requester(older, p1, Permissions.READ_WRITE);
+        assertFalse(o.waitGranted());
+        Requester y = new Requester(younger, p0, Permissions.READ_ONLY);
+        y.join(1000);
+        assertTrue(y.error instanceof TransactionAbortedException);
+        assertEquals(1, tm.getDeadlocks());
+        assertFalse(o.waitGranted());
+        assertTrue(o.error == null);
+
+        tm.release(younger);
+        assertTrue(o.waitGranted());
+    }
+
+    /**
+     * The victim need not be the transaction closing the cycle: a younger
+     * waiter is woken up to abort.
+     */
+    @Test public void deadlockWakesVictim() throws Exception {
+        PageId p1 = new HeapPageId(1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        tm.acquireLock(older, p0, Permissions.READ_ONLY);
+        tm.acquireLock(younger, p0, Permissions.READ_ONLY);
+        tm.acquireLock(younger, p1, Permissions.READ_ONLY);
+
+        // younger waits to upgrade p0, then older waits for its p1
+        Requester y = new Requester(younger, p0, Permissions.READ_WRITE);
+        assertFalse(y.waitGranted());
+        Requester o = new Requester(older, p1, Permissions.READ_WRITE);
+        y.join(1000);
+        assertTrue(y.error instanceof TransactionAbortedException);
+        assertFalse(o.waitGranted());
+
+        tm.release(younger);
+        assertTrue(o.waitGranted());
+        assertTrue(o.error == null);
+        assertTrue(tm.tryAcquireSharedLock(younger, p0));
+    }
+
+    /**
+     * Two transactions that start to wait for each other at the same time,
+     * on pages of different stripes, are always found deadlocked.
+     */
+    @Test public void racingDeadlocks() throws Exception {
+        final int rounds = 200;
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicInteger aborts = new AtomicInteger();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 2; ++t) {
+            final int first = t;
+            Thread w = new Thread(() -> {
+                try {
+                    for (int round = 0; round < rounds; ++round) {
+                        PageId mine = new HeapPageId(round, first);
+                        PageId other = new HeapPageId(round, 1 - first);
+                        TransactionId tid = new TransactionId();
+                        tm.acquireLock(tid, mine, Permissions.READ_WRITE);
+                        barrier.await();
+                        try {
+                            tm.acquireLock(tid, other, Permissions.READ_WRITE);
+                        } catch (TransactionAbortedException e) {
+                            aborts.incrementAndGet();
+                        }
+                        tm.release(tid);
+                        barrier.await();
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join(30000);
+            assertFalse(w.isAlive());
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(rounds, aborts.get());
+        assertEquals(rounds, tm.getDeadlocks());
+    }
+
+    /**
+     * A long wait without a deadlock is not aborted.
+     */
+    @Test public void noDeadlockNoAbort() throws Exception {
+        TransactionId holder = new TransactionId();
+        tm.acquireLock(holder, p0, Permissions.READ_WRITE);
+        Requester r = new Requester(Permissions.READ_WRITE);
+        Thread.sleep(500);
+        assertTrue(r.isAlive());
+        assertTrue(r.error == null);
+
+        tm.release(holder);
+        assertTrue(r.waitGranted());
+        assertEquals(0, tm.getDeadlocks());
+    }
+
+    /**
+     * Policies parse by name, and unknown names fall back.
+     */
+    @Test public void parsePolicy() {
+        TransactionManager.Policy fallback = TransactionManager.Policy.DETECT;
+        assertEquals(TransactionManager.Policy.WAIT_DIE, TransactionManager.Policy.parse(" wait_die ", fallback));
+        assertEquals(fallback, TransactionManager.Policy.parse(null, fallback));
+        assertEquals(fallback, TransactionManager.Policy.parse("timeout", fallback));
+    }
+
+    /**
+     * Under NO_WAIT a conflicting request aborts at once.
+     */
+    @Test public void noWait() throws Exception {
+        tm.setPolicy(TransactionManager.Policy.NO_WAIT);
+        tm.acquireLock(new TransactionId(), p0, Permissions.READ_ONLY);
+        tm.acquireLock(new TransactionId(), p0, Permissions.READ_ONLY);
+        Requester r = new Requester(Permissions.READ_WRITE);
+        r.join(1000);
+        assertTrue(r.error instanceof TransactionAbortedException);
+    }
+
+    /**
+     * Under WAIT_DIE an older requester waits for a younger holder, and a
+     * younger one aborts.
+     */
+    @Test public void waitDie() throws Exception {
+        tm.setPolicy(TransactionManager.Policy.WAIT_DIE);
+        PageId p1 = new HeapPageId(1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        tm.acquireLock(older, p0, Permissions.READ_WRITE);
+        tm.acquireLock(younger, p1, Permissions.READ_WRITE);
+
+        Requester o = new Requester(older, p1, Permissions.READ_ONLY);
+        assertFalse(o.waitGranted());
+        Requester y = new Requester(younger, p0, Permissions.READ_ONLY);
+        y.join(1000);
+        assertTrue(y.error instanceof TransactionAbortedException);
+
+        tm.release(younger);
+        assertTrue(o.waitGranted());
+        assertEquals(0, tm.getDeadlocks());
+    }
+
+    /**
+     * Under WOUND_WAIT an older requester aborts a younger holder, which
+     * finds out at its next request, and a younger requester waits.
+     */
+    @Test public void woundWait() throws Exception {
+        tm.setPolicy(TransactionManager.Policy.WOUND_WAIT);
+        PageId p1 = new HeapPageId(1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        tm.acquireLock(older, p0, Permissions.READ_WRITE);
+        tm.acquireLock(younger, p1, Permissions.READ_WRITE);
+
+        Requester y = new Requester(younger, p0, Permissions.READ_ONLY);
+        assertFalse(y.waitGranted());
+        assertTrue(y.error == null);
+        // younger is waiting, so it is aborted at once
+        Requester o = new Requester(older, p1, Permissions.READ_ONLY);
+        y.join(1000);
+        assertTrue(y.error instanceof TransactionAbortedException);
+        tm.release(younger);
+        assertTrue(o.waitGranted());
+
+        // a running younger holder is wounded and aborts on its next request
+        TransactionId running = new TransactionId();
+        PageId p2 = new HeapPageId(1, 2);
+        tm.acquireLock(running, p2, Permissions.READ_WRITE);
+        Requester o2 = new Requester(older, p2, Permissions.READ_ONLY);
+        assertFalse(o2.waitGranted());
+        try {
+            tm.acquireLock(running, new HeapPageId(1, 3), Permissions.READ_ONLY);
+            assertTrue("wounded transaction got a lock", false);
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        tm.release(running);
+        assertTrue(o2.waitGranted());
+    }
+
+    /**
+     * A wound mark goes away with the transaction, and a transaction that
+     * is done by the time it is wounded is not marked at all.
+     */
+    @Test public void woundOutlivesNoTransaction() throws Exception {
+        TransactionId tid = new TransactionId();
+        tm.acquireLock(tid, p0, Permissions.READ_WRITE);
+        tm.wound(tid);
+        assertTrue(tm.isWounded(tid));
+        tm.release(tid);
+        assertFalse(tm.isWounded(tid));
+
+        tm.wound(tid);
+        assertFalse(tm.isWounded(tid));
+    }
+
+    /**
+     * Transactions on pages of different stripes, and contending for the
+     * same pages, keep the lock table consistent and never lose a wake-up.
+     */
+    @Test public void concurrentStripes() throws Exception {
+        final int threads = 8;
+        final int pages = 200;
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            final int table = t;
+            Thread w = new Thread(() -> {
+                try {
+                    Random rand = new Random(table);
+                    for (int round = 0; round < 20; ++round) {
+                        // pages of its own
+                        TransactionId tid = new TransactionId();
+                        for (int i = 0; i < pages; ++i)
+                            tm.acquireLock(tid, new HeapPageId(table, i), Permissions.READ_WRITE);
+                        assertEquals(pages, tm.getLocksFromTid(tid).size());
+                        assertTrue(tm.holdsLock(tid, new HeapPageId(table, pages / 2)));
+                        tm.release(tid);
+                        assertTrue(tm.getLocksFromTid(tid) == null);
+
+                        // a few shared pages, in random order
+                        tid = new TransactionId();
+                        try {
+                            for (int i = 0; i < 4; ++i)
+                                tm.acquireLock(tid, new HeapPageId(-1, rand.nextInt(8)),
+                                        rand.nextBoolean() ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+                        } catch (TransactionAbortedException e) {
+                            // a deadlock victim
+                        }
+                        tm.release(tid);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join(30000);
+            assertFalse(w.isAlive());
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        for (int i = 0; i < 8; ++i)
+            assertTrue(tm.tryAcquireSharedLock(new TransactionId(), new HeapPageId(-1, i)));
+    }
+
+    /**
+     * The table modes combine and conflict as in multi-granularity locking.
+     */
+    @Test public void tableModes() throws Exception {
+        TransactionManager.LockType is = TransactionManager.LockType.INTENTION_SHARED;
+        TransactionManager.LockType ix = TransactionManager.LockType.INTENTION_EXCLUSIVE;
+        TransactionManager.LockType s = TransactionManager.LockType.SHARED;
+        TransactionManager.LockType six = TransactionManager.LockType.SHARED_INTENTION_EXCLUSIVE;
+        TransactionManager.LockType x = TransactionManager.LockType.EXCLUSIVE;
+        assertEquals(six, TransactionManager.combine(s, ix));
+        assertEquals(six, TransactionManager.combine(ix, s));
+        assertEquals(s, TransactionManager.combine(is, s));
+        assertEquals(x, TransactionManager.combine(six, x));
+        assertTrue(TransactionManager.covers(six, is));
+        assertFalse(TransactionManager.covers(ix, s));
+
+        // page locks take intention locks, which never conflict
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        tm.acquireLock(reader, p0, Permissions.READ_ONLY);
+        tm.acquireLock(writer, new HeapPageId(1, 1), Permissions.READ_WRITE);
+        assertEquals(is, tm.getTableLock(reader, 1));
+        assertEquals(ix, tm.getTableLock(writer, 1));
+
+        // reading the whole table waits for the writer
+        TransactionId scanner = new TransactionId();
+        CountDownLatch scanning = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                tm.acquireTableLock(scanner, 1, s);
+                scanning.countDown();
+            } catch (TransactionAbortedException e) {
+            }
+        });
+        t.start();
+        assertFalse(scanning.await(WAIT, TimeUnit.MILLISECONDS));
+        tm.release(writer);
+        assertTrue(scanning.await(1, TimeUnit.SECONDS));
+
+        // readers of pages share the table with it, writers wait
+        Requester r = new Requester(new TransactionId(), new HeapPageId(1, 2), Permissions.READ_ONLY);
+        assertTrue(r.waitGranted());
+        Requester w = new Requester(new TransactionId(), new HeapPageId(1, 3), Permissions.READ_WRITE);
+        assertFalse(w.waitGranted());
+        tm.release(scanner);
+        assertTrue(w.waitGranted());
+    }
+
+    /**
+     * Under a table lock, pages are only noted in the set of the
+     * transaction, and keep their modes for the BufferPool.
+     */
+    @Test public void tableLockCoversPages() throws Exception {
+        TransactionId loader = new TransactionId();
+        tm.acquireTableLock(loader, 1, TransactionManager.LockType.SHARED);
+        for (int i = 0; i < 100; ++i)
+            tm.acquireLock(loader, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertTrue(tm.holdsLock(loader, new HeapPageId(1, 500)));
+        assertEquals(100, tm.getLocksFromTid(loader).size());
+        // other readers share the pages
+        TransactionId other = new TransactionId();
+        assertTrue(tm.tryAcquireSharedLock(other, p0));
+        tm.release(other);
+
+        // a write needs SIX on the table and a page lock
+        tm.acquireLock(loader, p0, Permissions.READ_WRITE);
+        assertEquals(TransactionManager.LockType.SHARED_INTENTION_EXCLUSIVE, tm.getTableLock(loader, 1));
+        assertFalse(tm.tryAcquireSharedLock(new TransactionId(), p0));
+
+        TransactionId writer = new TransactionId();
+        tm.acquireTableLock(writer, 2, TransactionManager.LockType.EXCLUSIVE);
+        tm.acquireLock(writer, new HeapPageId(2, 0), Permissions.READ_ONLY);
+        tm.acquireLock(writer, new HeapPageId(2, 0), Permissions.READ_WRITE);
+        List<TransactionManager.Lock> locks = tm.getLocksFromTid(writer);
+        assertEquals(1, locks.size());
+        assertEquals(TransactionManager.LockType.EXCLUSIVE, locks.get(0).type);
+        assertFalse(tm.tryAcquireSharedLock(new TransactionId(), new HeapPageId(2, 1)));
+
+        tm.release(loader);
+        tm.release(writer);
+        assertTrue(tm.getLocksFromTid(writer) == null);
+        assertTrue(tm.tryAcquireSharedLock(new TransactionId(), new HeapPageId(2, 1)));
+        assertTrue(tm.tryAcquireSharedLock(new TransactionId(), p0));
+    }
+
+    /**
+     * A table lock request and page lock requests deadlock like page locks.
+     */
+    @Test public void tableDeadlock() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        tm.acquireLock(older, p0, Permissions.READ_WRITE);
+        tm.acquireLock(younger, new HeapPageId(2, 0), Permissions.READ_WRITE);
+
+        CountDownLatch locked = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                tm.acquireTableLock(older, 2, TransactionManager.LockType.SHARED);
+                locked.countDown();
+            } catch (TransactionAbortedException e) {
+            }
+        });
+        t.start();
+        assertFalse(locked.await(WAIT, TimeUnit.MILLISECONDS));
+        Requester y = new Requester(younger, p0, Permissions.READ_ONLY);
+        y.join(1000);
+        assertTrue(y.error instanceof TransactionAbortedException);
+        assertEquals(1, tm.getDeadlocks());
+        tm.release(younger);
+        assertTrue(locked.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Beyond the threshold, the page locks of a reader become a shared
+     * table lock, and those of a writer an exclusive one; the pages stay in
+     * the set of the transaction.
+     */
+    @Test public void escalation() throws Exception {
+        tm.setEscalation(10, 0);
+        TransactionId reader = new TransactionId();
+        for (int i = 0; i < 11; ++i)
+            tm.acquireLock(reader, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertEquals(TransactionManager.LockType.SHARED, tm.getTableLock(reader, 1));
+        assertEquals(1, tm.getEscalations());
+        assertEquals(0, tm.getPageLocks());
+        assertEquals(11, tm.getLocksFromTid(reader).size());
+        tm.release(reader);
+
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 10; ++i)
+            tm.acquireLock(writer, new HeapPageId(1, i), Permissions.READ_ONLY);
+        tm.acquireLock(writer, p0, Permissions.READ_WRITE);
+        assertEquals(TransactionManager.LockType.INTENTION_EXCLUSIVE, tm.getTableLock(writer, 1));
+        tm.acquireLock(writer, new HeapPageId(1, 10), Permissions.READ_ONLY);
+        assertEquals(TransactionManager.LockType.EXCLUSIVE, tm.getTableLock(writer, 1));
+        int exclusive = 0;
+        for (TransactionManager.Lock lock : tm.getLocksFromTid(writer))
+            if (lock.type == TransactionManager.LockType.EXCLUSIVE)
+                ++exclusive;
+        assertEquals(1, exclusive);
+        tm.release(writer);
+        assertEquals(0, tm.getPageLocks());
+    }
+
+    /**
+     * Escalation never waits: with another transaction on the table the
+     * page locks stay, and escalation is tried again later.
+     */
+    @Test public void escalationBacksOff() throws Exception {
+        tm.setEscalation(10, 0);
+        TransactionId other = new TransactionId();
+        tm.acquireLock(other, new HeapPageId(1, 100), Permissions.READ_WRITE);
+        TransactionId reader = new TransactionId();
+        for (int i = 0; i < 30; ++i)
+            tm.acquireLock(reader, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertEquals(TransactionManager.LockType.INTENTION_SHARED, tm.getTableLock(reader, 1));
+        assertEquals(31, tm.getPageLocks());
+
+        tm.release(other);
+        tm.acquireLock(reader, new HeapPageId(1, 30), Permissions.READ_ONLY);
+        assertEquals(TransactionManager.LockType.INTENTION_SHARED, tm.getTableLock(reader, 1));
+        for (int i = 31; i < 44; ++i)
+            tm.acquireLock(reader, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertEquals(TransactionManager.LockType.SHARED, tm.getTableLock(reader, 1));
+        assertEquals(1, tm.getEscalations());
+    }
+
+    /**
+     * Past the bound of the lock table, transactions escalate whatever page
+     * locks they take.
+     */
+    @Test public void boundedLockTable() throws Exception {
+        tm.setEscalation(0, 20);
+        TransactionId big = new TransactionId();
+        for (int i = 0; i < 20; ++i)
+            tm.acquireLock(big, new HeapPageId(1, i), Permissions.READ_ONLY);
+        assertEquals(0, tm.getEscalations());
+        TransactionId small = new TransactionId();
+        tm.acquireLock(small, new HeapPageId(2, 0), Permissions.READ_WRITE);
+        assertEquals(TransactionManager.LockType.EXCLUSIVE, tm.getTableLock(small, 2));
+        tm.acquireLock(big, new HeapPageId(1, 20), Permissions.READ_ONLY);
+        assertEquals(TransactionManager.LockType.SHARED, tm.getTableLock(big, 1));
+        assertEquals(2, tm.getEscalations());
+        assertEquals(0, tm.getPageLocks());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TransactionManagerTest.class);
+    }
+}
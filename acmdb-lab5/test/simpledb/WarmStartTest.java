@@ -0,0 +1,99 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Tests for preloading the pages that were hot before a restart.
+ */
+public class WarmStartTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 8;
+
+    private HeapFile table;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        bp = Database.resetBufferPool(2 * TABLE_PAGES);
+        bp.setPrefetchWindow(0);
+    }
+
+    private void read(TransactionId tid, int pgNo, int times) throws Exception {
+        HeapPageId pid = new HeapPageId(table.getId(), pgNo);
+        for (int i = 0; i < times; ++i) {
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+            bp.unpinPage(tid, pid);
+        }
+    }
+
+    /**
+     * A checkpoint records the resident pages, most requested first.
+     */
+    @Test public void checkpointRecordsHotPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        read(tid, 2, 1);
+        read(tid, 5, 3);
+        read(tid, 7, 2);
+        bp.transactionComplete(tid);
+        Database.getLogFile().logCheckpoint();
+
+        List<PageId> pids = HotPageSet.load(Database.getLogFile().pageSetFile());
+        assertEquals(3, pids.size());
+        assertEquals(new HeapPageId(table.getId(), 5), pids.get(0));
+        assertEquals(new HeapPageId(table.getId(), 7), pids.get(1));
+        assertEquals(new HeapPageId(table.getId(), 2), pids.get(2));
+    }
+
+    /**
+     * After a restart the recorded pages are served from the pool.
+     */
+    @Test public void warmUpPreloadsPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; ++i)
+            read(tid, i, 1);
+        bp.transactionComplete(tid);
+        Database.getLogFile().logCheckpoint();
+
+        bp = Database.resetBufferPool(2 * TABLE_PAGES);
+        bp.setPrefetchWindow(0);
+        Database.warmUp().get();
+        assertEquals(TABLE_PAGES, bp.getStats().getPagesRead());
+
+        tid = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; ++i)
+            read(tid, i, 1);
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getStats().getMisses());
+        assertEquals(TABLE_PAGES, bp.getStats().getHits());
+    }
+
+    /**
+     * Preloading stops when the pool is full instead of evicting.
+     */
+    @Test public void preloadFillsPoolOnly() throws Exception {
+        bp = Database.resetBufferPool(TABLE_PAGES / 2);
+        List<PageId> pids = new ArrayList<>();
+        for (int i = 0; i < TABLE_PAGES; ++i)
+            pids.add(new HeapPageId(table.getId(), i));
+        bp.preload(pids, 1).get();
+        assertEquals(TABLE_PAGES / 2, bp.getResidentPages());
+        assertEquals(0, bp.getStats().getEvictions());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmStartTest.class);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.HeapFile;
+import simpledb.HeapPageId;
+import simpledb.Permissions;
+import simpledb.TransactionAbortedException;
+import simpledb.TransactionId;
+import simpledb.TransactionManager;
+
+/**
+ * Compares the lock policies of the TransactionManager on a hot-spot
+ * workload: short transactions lock a few random pages of a table, most of
+ * them among a handful of hot pages, half of them for writing, in no
+ * particular order, so that they conflict and deadlock often. Aborted
+ * transactions are retried with a new TransactionId.
+ * <p>
+ * Not run with the tests; after ant testcompile run
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.systemtest.LockPolicyBenchmark [threads] [seconds]
+ * </pre>
+ */
+public class LockPolicyBenchmark {
+    private static final int TABLE_PAGES = 64;
+    private static final int HOT_PAGES = 4;
+    private static final double HOT_FRACTION = 0.8;
+    private static final double WRITE_FRACTION = 0.5;
+    private static final int PAGES_PER_TRANSACTION = 4;
+    /**
+     * time a transaction works on each page it locks.
+     */
+    private static final long WORK_NANOS = 20000;
+
+    private static class Result {
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+    }
+
+    private static void transaction(BufferPool bp, HeapFile table, Random rand, TransactionId tid)
+            throws Exception {
+        for (int i = 0; i < PAGES_PER_TRANSACTION; ++i) {
+            int pgNo = rand.nextDouble() < HOT_FRACTION
+                    ? rand.nextInt(HOT_PAGES) : rand.nextInt(TABLE_PAGES);
+            Permissions perm = rand.nextDouble() < WRITE_FRACTION
+                    ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+            bp.getPage(tid, new HeapPageId(table.getId(), pgNo), perm);
+            LockSupport.parkNanos(WORK_NANOS);
+        }
+    }
+
+    private static Result run(TransactionManager.Policy policy, HeapFile table, int threads, long millis)
+            throws Exception {
+        BufferPool bp = Database.resetBufferPool(2 * TABLE_PAGES);
+        bp.setLockPolicy(policy);
+        Result result = new Result();
+        long deadline = System.currentTimeMillis() + millis;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            Random rand = new Random(t);
+            Thread worker = new Thread(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        try {
+                            transaction(bp, table, rand, tid);
+                            bp.transactionComplete(tid, true);
+                            result.commits.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            bp.transactionComplete(tid, false);
+                            result.aborts.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+
+        // warm up the JIT before measuring
+        run(TransactionManager.Policy.DETECT, table, threads, 1000);
+        System.out.printf("%d threads, %d s per policy%n", threads, seconds);
+        System.out.printf("%-12s %12s %12s %10s%n", "policy", "commits/s", "aborts/s", "abort rate");
+        for (TransactionManager.Policy policy : TransactionManager.Policy.values()) {
+            Result r = run(policy, table, threads, seconds * 1000L);
+            long commits = r.commits.get();
+            long aborts = r.aborts.get();
+            System.out.printf("%-12s %12.0f %12.0f %9.1f%%%n", policy,
+                    (double) commits / seconds, (double) aborts / seconds,
+                    100.0 * aborts / Math.max(1, commits + aborts));
+        }
+    }
+}